@@ -61,7 +61,7 @@ namespace ZenSource.Controllers
         }
 
         [HttpGet("image/{id}")]
-        public IActionResult Image(int id, string l)
+        public IActionResult Image(int id, string l, int? w, float? dpr, string fmt)
         {
             var quote = _repository.GetById(id);
 
@@ -69,14 +69,16 @@ namespace ZenSource.Controllers
 
             var viewModel = ZenMessageConverter.Convert(quote, l);
 
-            var quoteImage = new ZenQuoteImage(viewModel, _hostingEnvironment);
+            var quoteImage = new ZenQuoteImage(viewModel, _hostingEnvironment, id);
 
-            return File(quoteImage.GetImage(), "image/png");
+            var image = quoteImage.GetImage(ZenQuoteImage.WidthFor(w, dpr), fmt);
+
+            return File(image, quoteImage.ContentType);
 
         }
 
         [HttpGet("images")]
-        public IActionResult Images(string search, string ids, int? page, string l, string tags)
+        public IActionResult Images(string search, string ids, int? page, string l, string tags, bool? meta, int? w, float? dpr, string fmt)
         {
             var tagsIds = new List<int>();
             if (tags != null) tagsIds = tags.Split(',').Select(t => Convert.ToInt32(t)).ToList();
@@ -90,9 +92,14 @@ namespace ZenSource.Controllers
                 l = "en";
 
             var viewModelList = Mapper.Map<IEnumerable<ZenQuoteViewModel>>(modelList).Where(q => q.Language.Equals(l, StringComparison.OrdinalIgnoreCase)).ToList();
+
+            // Metadata only pages, clients fetch each image from image/{id} when they need it
+            if (meta == true)
+                return Json(viewModelList);
+
             foreach (var v in viewModelList)
             {
-                var img = new ZenQuoteImage(v, _hostingEnvironment).GetImage();
+                var img = new ZenQuoteImage(v, _hostingEnvironment, v.Id).GetImage(ZenQuoteImage.WidthFor(w, dpr), fmt);
                 var base64 = Convert.ToBase64String(ZenSourceUtil.ReadStream(img));
                 v.Image64Encoded = base64;
             }
@@ -101,7 +108,7 @@ namespace ZenSource.Controllers
         }
 
         [HttpGet("randomQuote")]
-        public IActionResult RandomQuote(string l = "EN")
+        public IActionResult RandomQuote(string l = "EN", bool? meta = null)
         {
             var ids = _repository.GetQuoteIds(l);
             var max = ids.Count;
@@ -110,7 +117,8 @@ namespace ZenSource.Controllers
 
             var quote = _repository.GetById(ids[randomNum]);
 
-            var quoteImage = ZenQuoteConverter.Convert(quote, l, _hostingEnvironment);
+            // Metadata only, clients keep the images they already have and fetch the others from image/{id}
+            var quoteImage = ZenQuoteConverter.Convert(quote, l, meta == true ? null : _hostingEnvironment);
 
             return Json(quoteImage);
 
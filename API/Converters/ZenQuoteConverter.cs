@@ -50,7 +50,7 @@ namespace ZenSource.Converters
 
             if (hostingEnvironment != null)
             {
-                var img = new ZenQuoteImage(z, hostingEnvironment).GetImage();
+                var img = new ZenQuoteImage(z, hostingEnvironment, z.Id).GetImage();
                 var base64 = System.Convert.ToBase64String(ZenSourceUtil.ReadStream(img));
                 z.Image64Encoded = base64;
             }
@@ -27,11 +27,14 @@ namespace ZenSource.Models
         public static int BACK_NUM = 16;
         public static int IMAGE_WIDTH = 1024;
         public static int IMAGE_HEIGHT = 576;
+        public static int DEFAULT_CARD_WIDTH_DP = 360;
 
-        public ZenQuoteImage(IZenDrawable drawable, IHostingEnvironment _hostingEnvironment)
+        public string ContentType { get; private set; } = "image/jpeg";
+
+        public ZenQuoteImage(IZenDrawable drawable, IHostingEnvironment _hostingEnvironment, int? quoteId = null)
         {
-            Random rdn = new Random();
-            var quoteBackground = rdn.Next(1, BACK_NUM + 1);
+            // Same background for the same quote, so the apps can draw the card themselves
+            var quoteBackground = quoteId.HasValue ? BackgroundFor(quoteId.Value) : new Random().Next(1, BACK_NUM + 1);
 
             _image = Image.Load($"{_hostingEnvironment.ContentRootPath}\\wwwroot\\img\\back{quoteBackground}.jpg");
 
@@ -44,10 +47,41 @@ namespace ZenSource.Models
 
         }
 
-        public Stream GetImage()
+        public static int BackgroundFor(int quoteId)
+        {
+            return ((quoteId % BACK_NUM) + BACK_NUM) % BACK_NUM + 1;
+        }
+
+        /// <summary>
+        /// Width asked by the client: w in pixels, or a typical card width at its density. Null for the full size.
+        /// </summary>
+        public static int? WidthFor(int? w, float? dpr)
+        {
+            if (w.HasValue && w.Value > 0) return w.Value;
+            if (dpr.HasValue && dpr.Value > 0) return (int)Math.Ceiling(DEFAULT_CARD_WIDTH_DP * dpr.Value);
+            return null;
+        }
+
+        public Stream GetImage(int? width = null, string format = null)
         {
+            // Never scaled up, smaller requests are resized keeping the aspect ratio
+            if (width.HasValue && width.Value < IMAGE_WIDTH)
+                _image.Resize(width.Value, IMAGE_HEIGHT * width.Value / IMAGE_WIDTH);
+
             Stream output = new MemoryStream();
-            _image.Save(output, new JpegEncoder());
+
+            // There is no WebP encoder here, clients asking for it get JPEG and decode whatever comes
+            if ("png".Equals(format, StringComparison.OrdinalIgnoreCase))
+            {
+                _image.Save(output, new PngEncoder());
+                ContentType = "image/png";
+            }
+            else
+            {
+                _image.Save(output, new JpegEncoder());
+                ContentType = "image/jpeg";
+            }
+
             output.Seek(0, SeekOrigin.Begin);
             return output;
         }
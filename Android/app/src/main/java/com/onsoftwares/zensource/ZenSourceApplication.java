@@ -0,0 +1,61 @@
+package com.onsoftwares.zensource;
+
+import android.app.Application;
+
+import com.onsoftwares.zensource.utils.httputil.HttpClientRegistry;
+import com.onsoftwares.zensource.utils.imageutil.BitmapBudget;
+import com.onsoftwares.zensource.utils.imageutil.BitmapDecoder;
+import com.onsoftwares.zensource.utils.imageutil.BitmapMemoryCache;
+import com.onsoftwares.zensource.utils.imageutil.BitmapPool;
+import com.onsoftwares.zensource.utils.imageutil.DiskImageStore;
+import com.onsoftwares.zensource.utils.imageutil.EncodedImageCache;
+import com.onsoftwares.zensource.utils.imageutil.ImageResolution;
+import com.onsoftwares.zensource.utils.imageutil.PixelCache;
+import com.onsoftwares.zensource.utils.imageutil.PreviewCache;
+
+import java.io.File;
+
+public class ZenSourceApplication extends Application {
+
+    private static final long HTTP_CACHE_SIZE = 30 * 1024 * 1024;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        HttpClientRegistry.configure(new HttpClientRegistry.Config()
+                .setCache(new File(getCacheDir(), "http"), HTTP_CACHE_SIZE));
+
+        BitmapMemoryCache.init(this);
+        BitmapDecoder.init(this);
+        BitmapPool.init(this);
+        EncodedImageCache.init(this);
+        DiskImageStore.init(this);
+        PixelCache.init(this);
+        PreviewCache.init(this);
+        ImageResolution.init(this);
+
+        BitmapBudget.init(this);
+        BitmapBudget.getInstance().register(BitmapMemoryCache.getInstance());
+        BitmapBudget.getInstance().register(BitmapPool.getInstance());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapMemoryCache.getInstance().trimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+        EncodedImageCache.getInstance().trimMemory(level);
+
+        if (level >= TRIM_MEMORY_UI_HIDDEN)
+            DiskImageStore.getInstance().flush();
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapMemoryCache.getInstance().clear();
+        BitmapPool.getInstance().clear();
+        EncodedImageCache.getInstance().clear();
+    }
+}
@@ -1,38 +1,33 @@
 package com.onsoftwares.zensource.activities;
 
-import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.drawable.BitmapDrawable;
-import android.net.Uri;
-import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.Toolbar;
-import android.util.Base64;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
-import android.widget.ImageView;
 import android.widget.Toast;
 
 import com.onsoftwares.zensource.R;
+import com.onsoftwares.zensource.components.ZoomableImageView;
 import com.onsoftwares.zensource.utils.ZenSourceUtils;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import com.onsoftwares.zensource.utils.imageutil.EncodedImageCache;
+import com.onsoftwares.zensource.utils.imageutil.ImageLoader;
+import com.onsoftwares.zensource.utils.imageutil.ImageSharer;
 
 public class ZenCardZoomActivity extends AppCompatActivity {
 
     private View rootView;
     private Toolbar toolbar;
-    private ImageView imageView;
+    private ZoomableImageView imageView;
     private boolean fullscreen = false;
+    private int quoteId;
+    private String quoteLanguage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,18 +44,38 @@ public class ZenCardZoomActivity extends AppCompatActivity {
         getSupportActionBar().setDefaultDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setTitle(null);
 
-        String image64encoded = getIntent().getStringExtra("image64encoded");
-        byte[] decodedString = Base64.decode(image64encoded, Base64.DEFAULT);
-        Bitmap decodedByte = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
+        imageView = (ZoomableImageView) findViewById(R.id.zen_card_zoom_img);
+
+        // The image takes the touches for zooming, so taps toggle full screen through it
+        imageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                fullView(v);
+            }
+        });
 
-        imageView = (ImageView) findViewById(R.id.zen_card_zoom_img);
+        // Only the quote is passed, its image is taken from the caches or fetched in background
+        quoteId = getIntent().getIntExtra("id", -1);
+        quoteLanguage = getIntent().getStringExtra("language");
 
-        imageView.setImageBitmap(decodedByte);
+        if (quoteId >= 0)
+            ImageLoader.getInstance().loadFullSize(quoteId, quoteLanguage, imageView, new ImageLoader.OnEncodedImage() {
+                @Override
+                public void onEncodedImage(byte[] image) {
+                    imageView.setImageSource(image);
+                }
+            });
 
         ZenSourceUtils.restoreFullScreen(this);
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        ImageLoader.getInstance().recycle(imageView);
+    }
+
     public void fullView(View v) {
         if (!fullscreen) {
             ZenSourceUtils.goFullScreen(this);
@@ -100,35 +115,11 @@ public class ZenCardZoomActivity extends AppCompatActivity {
     }
 
     private void shareQuote() {
+        // Written and shared in background, from the encoded image when it is still cached
+        Object bitmap = imageView.getTag(R.id.image_loader_bitmap);
+        Bitmap shown = bitmap instanceof Bitmap ? (Bitmap) bitmap : null;
+        byte[] image = EncodedImageCache.getInstance().get(ImageLoader.keyFor(quoteId, quoteLanguage));
 
-        // Saving image on Cache
-        try {
-            File cachePath = new File(getCacheDir(), "images");
-            cachePath.mkdirs(); // don't forget to make the directory
-            FileOutputStream stream = new FileOutputStream(cachePath + "/" + ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png"); // overwrites this image every time
-            ((BitmapDrawable)imageView.getDrawable()).getBitmap().compress(Bitmap.CompressFormat.PNG, 100, stream);
-            stream.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Sharing
-        File imagePath = new File(getCacheDir(), "images");
-        File newFile = new File(imagePath,  ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png");
-        Uri contentUri = FileProvider.getUriForFile(this, ZenSourceUtils.PACKKAGE_NAME + ".fileprovider", newFile);
-
-        if (contentUri != null) {
-
-            Intent shareIntent = new Intent();
-            shareIntent.setAction(Intent.ACTION_SEND);
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            shareIntent.setDataAndType(contentUri, getContentResolver().getType(contentUri));
-            shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
-            startActivity(Intent.createChooser(shareIntent, "Choose an app"));
-
-        }
+        ImageSharer.getInstance().share(this, image, shown);
     }
 }
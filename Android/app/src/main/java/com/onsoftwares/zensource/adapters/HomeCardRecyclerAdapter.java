@@ -5,12 +5,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.util.Base64;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -29,6 +29,8 @@ import com.onsoftwares.zensource.interfaces.OnLoadMoreListener;
 import com.onsoftwares.zensource.interfaces.OnZenCardAction;
 import com.onsoftwares.zensource.models.ZenCardModel;
 import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.imageutil.ImageLoader;
+import com.onsoftwares.zensource.utils.imageutil.ImagePrefetcher;
 
 import org.w3c.dom.Text;
 
@@ -46,8 +48,9 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
     private final int VIEW_TYPE_LOADING = 1;
 
     private boolean isLoading;
-    private int visibleThreshold = 1;
+    private long loadingStartedAt;
     private int lastVisibleItem, totalItemCount;
+    private final ImagePrefetcher prefetcher;
 
     public HomeCardRecyclerAdapter(Context mContext, List<ZenCardModel> dataList, RecyclerView recyclerView) {
         this.mContext = mContext;
@@ -55,20 +58,28 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
         this.recyclerView = recyclerView;
 
         final LinearLayoutManager linearLayoutManager = (LinearLayoutManager) this.recyclerView.getLayoutManager();
+        this.prefetcher = new ImagePrefetcher(linearLayoutManager, R.id.home_card_image);
 
         this.recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
             public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
                 super.onScrolled(recyclerView, dx, dy);
 
+                prefetcher.onScrolled(dataList, dy);
+
                 totalItemCount = linearLayoutManager.getItemCount();
                 lastVisibleItem = linearLayoutManager.findLastVisibleItemPosition();
 
-                if (!isLoading && totalItemCount <= (lastVisibleItem + visibleThreshold) && totalItemCount > 2) {
+                // The next page is requested ahead, so it arrives before the end of the list is
+                // reached
+                int visibleThreshold = Math.max(1, prefetcher.getLoadMoreThreshold());
+
+                if (!isLoading && !prefetcher.isPaused() && totalItemCount <= (lastVisibleItem + visibleThreshold) && totalItemCount > 2) {
                     if (onLoadMore != null) {
                         onLoadMore.onLoadMore();
                     }
                     isLoading = true;
+                    loadingStartedAt = SystemClock.uptimeMillis();
                 }
             }
         });
@@ -154,7 +165,7 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
             homeCardViewHolder.getButtonShare().setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    onZenCardAction.onShare(homeCardViewHolder.getImageView());
+                    onZenCardAction.onShare(zenCard, homeCardViewHolder.getImageView());
                 }
             });
 
@@ -164,6 +175,14 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
         }
     }
 
+    @Override
+    public void onViewRecycled(RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
+
+        if (holder instanceof HomeCardViewHolder)
+            ImageLoader.getInstance().recycle(((HomeCardViewHolder) holder).getImageView());
+    }
+
     @Override
     public int getItemViewType(int position) {
         return dataList.get(position) == null ? VIEW_TYPE_LOADING : VIEW_TYPE_ITEM;
@@ -193,13 +212,8 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
 
     private void refreshComponents(HomeCardViewHolder viewHolder, ZenCardModel z) {
 
-        if (z.getImage64encoded() != null && z.getImage64encoded().length() > 0) {
-            byte[] decodedString = Base64.decode(z.getImage64encoded(), Base64.DEFAULT);
-            Bitmap bitmap = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
-//            Bitmap circleBitmap = ZenSourceUtils.getCroppedBitmap(bitmap, bitmap.getWidth() / 2, bitmap.getHeight() / 2, 100);
-
-            viewHolder.getImageView().setImageBitmap(bitmap);
-        }
+        // Decoded in background, binding the same card again does not decode it twice
+        ImageLoader.getInstance().load(z, viewHolder.getImageView(), R.drawable.card_holder);
 
         if (z.getMessage() != null) viewHolder.getQuote().setText(z.getMessage());
         if (z.getAuthor() != null) viewHolder.getAuthor().setText(z.getAuthor());
@@ -226,7 +240,22 @@ public class HomeCardRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
     }
 
     public void setLoading(boolean loading) {
+        if (isLoading && !loading && loadingStartedAt > 0)
+            prefetcher.onPageLoaded(SystemClock.uptimeMillis() - loadingStartedAt);
+
         isLoading = loading;
+        loadingStartedAt = 0;
+    }
+
+    /**
+     * Stops prefetching images and pages, should be called when the fragment is paused.
+     */
+    public void pausePrefetch() {
+        prefetcher.pause();
+    }
+
+    public void resumePrefetch() {
+        prefetcher.resume();
     }
 
     static class HomeCardViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,523 @@
+package com.onsoftwares.zensource.components;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.AppCompatImageView;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+
+import com.onsoftwares.zensource.utils.imageutil.BitmapDecoder;
+import com.onsoftwares.zensource.utils.imageutil.BitmapBudget;
+import com.onsoftwares.zensource.utils.imageutil.BitmapPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ImageView with pinch, pan and double tap zoom.
+ *
+ * The drawable set on it is the base image, downsampled to fit the screen. Once zoomed past the
+ * resolution of the base image, only the visible region of the source image is decoded, in tiles,
+ * through {@link BitmapRegionDecoder}. Tiles are kept in a small cache bounded to a few screens,
+ * and go back to the {@link BitmapPool} when evicted. While attached the tiles count against the
+ * {@link BitmapBudget}, making the list caches give way on small heaps.
+ */
+public class ZoomableImageView extends AppCompatImageView {
+
+    private static final float MAX_ZOOM = 5f;
+    private static final float DOUBLE_TAP_ZOOM = 2.5f;
+    private static final int TILE_SIZE = 512;
+    private static final int TILE_CACHE_SCREENS = 3;
+
+    private static final ExecutorService tileExecutor = Executors.newSingleThreadExecutor();
+
+    private final Matrix matrix = new Matrix();
+    private final float[] values = new float[9];
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Set<String> pendingTiles = new HashSet<>();
+
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private LruCache<String, Bitmap> tiles;
+    private BitmapBudget.Owner tileOwner;
+
+    private BitmapRegionDecoder decoder;
+    private int sourceWidth;
+    private int sourceHeight;
+    private volatile Set<String> wantedTiles = Collections.emptySet();
+    private List<Tile> visibleTiles = new ArrayList<>();
+    private float minScale = 1f;
+    private int drawableWidth;
+
+    public ZoomableImageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public ZoomableImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public ZoomableImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        setScaleType(ScaleType.MATRIX);
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int maxTileBytes = metrics.widthPixels * metrics.heightPixels * 4 * TILE_CACHE_SCREENS;
+
+        tiles = new LruCache<String, Bitmap>(maxTileBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                BitmapPool.getInstance().put(oldValue);
+            }
+        };
+
+        tileOwner = new BitmapBudget.Owner() {
+            @Override
+            public String getName() {
+                return "ZoomTiles";
+            }
+
+            @Override
+            public int getPriority() {
+                return BitmapBudget.PRIORITY_ZOOM;
+            }
+
+            @Override
+            public long getBitmapBytes() {
+                return tiles.size();
+            }
+
+            @Override
+            public void trimTo(final long bytes) {
+                // Tiles may be being drawn, so they are only evicted on the main thread
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    tiles.trimToSize((int) bytes);
+                    return;
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        tiles.trimToSize((int) bytes);
+                    }
+                });
+            }
+        };
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                matrix.postTranslate(-distanceX, -distanceY);
+                applyMatrix();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (isZoomed())
+                    resetMatrix();
+                else
+                    zoom(DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                return performClick();
+            }
+        });
+    }
+
+    /**
+     * Encoded source image, decoded region by region when zooming in. Until it is set, zooming
+     * just scales the base image.
+     */
+    public void setImageSource(final byte[] image) {
+        if (image == null || image.length == 0)
+            return;
+
+        tileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final BitmapRegionDecoder newDecoder = BitmapRegionDecoder.newInstance(image, 0, image.length, false);
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isAttachedToWindow()) {
+                                recycleDecoder(newDecoder);
+                                return;
+                            }
+
+                            recycleDecoder(decoder);
+                            tiles.evictAll();
+
+                            decoder = newDecoder;
+                            sourceWidth = newDecoder.getWidth();
+                            sourceHeight = newDecoder.getHeight();
+                            updateTiles();
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e("ZoomableImageView", "Could not read the image regions", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+
+        // Called by the super constructor, before the fields are set
+        if (matrix == null)
+            return;
+
+        int oldWidth = drawableWidth;
+        drawableWidth = drawable != null ? drawable.getIntrinsicWidth() : 0;
+
+        // A sharper base image replaces the thumbnail without moving what is on screen
+        if (isZoomed() && oldWidth > 0 && drawableWidth > 0) {
+            float ratio = (float) oldWidth / drawableWidth;
+            matrix.preScale(ratio, ratio);
+            minScale *= ratio;
+            applyMatrix();
+        } else {
+            resetMatrix();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetMatrix();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        Drawable drawable = getDrawable();
+        if (decoder == null || drawable == null || visibleTiles.isEmpty())
+            return;
+
+        float sourceToDrawable = (float) drawable.getIntrinsicWidth() / sourceWidth;
+        Rect src = new Rect();
+        RectF dst = new RectF();
+
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(matrix);
+
+        for (Tile tile : visibleTiles) {
+            Bitmap bitmap = tiles.get(tile.key);
+            if (bitmap == null)
+                continue;
+
+            // A pooled bitmap may be larger than the tile, the region is decoded to its top left
+            src.set(0, 0, tile.decodedWidth(), tile.decodedHeight());
+            dst.set(tile.region.left * sourceToDrawable, tile.region.top * sourceToDrawable,
+                    tile.region.right * sourceToDrawable, tile.region.bottom * sourceToDrawable);
+            canvas.drawBitmap(bitmap, src, dst, tilePaint);
+        }
+
+        canvas.restore();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        BitmapBudget.getInstance().register(tileOwner);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        BitmapBudget.getInstance().unregister(tileOwner);
+
+        wantedTiles = Collections.emptySet();
+        visibleTiles = new ArrayList<>();
+        tiles.evictAll();
+
+        recycleDecoder(decoder);
+        decoder = null;
+    }
+
+    private boolean isZoomed() {
+        return getScale() > minScale * 1.01f;
+    }
+
+    private float getScale() {
+        matrix.getValues(values);
+        return values[Matrix.MSCALE_X];
+    }
+
+    private void zoom(float factor, float focusX, float focusY) {
+        float scale = getScale();
+        float target = Math.max(minScale, Math.min(minScale * MAX_ZOOM, scale * factor));
+
+        matrix.postScale(target / scale, target / scale, focusX, focusY);
+        applyMatrix();
+    }
+
+    /**
+     * Fits the whole image in the view, centered.
+     */
+    private void resetMatrix() {
+        Drawable drawable = getDrawable();
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+
+        if (drawable == null || width <= 0 || height <= 0 || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0)
+            return;
+
+        minScale = Math.min((float) width / drawable.getIntrinsicWidth(), (float) height / drawable.getIntrinsicHeight());
+
+        matrix.setScale(minScale, minScale);
+        matrix.postTranslate((width - drawable.getIntrinsicWidth() * minScale) / 2,
+                (height - drawable.getIntrinsicHeight() * minScale) / 2);
+        applyMatrix();
+    }
+
+    /**
+     * Keeps the image centered when smaller than the view and its edges inside the view otherwise,
+     * then updates the tiles for what became visible.
+     */
+    private void applyMatrix() {
+        Drawable drawable = getDrawable();
+
+        if (drawable != null) {
+            int width = getWidth() - getPaddingLeft() - getPaddingRight();
+            int height = getHeight() - getPaddingTop() - getPaddingBottom();
+
+            RectF rect = new RectF(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+            matrix.mapRect(rect);
+
+            matrix.postTranslate(constrain(rect.left, rect.right, width), constrain(rect.top, rect.bottom, height));
+        }
+
+        setImageMatrix(matrix);
+        updateTiles();
+        invalidate();
+    }
+
+    private static float constrain(float start, float end, int size) {
+        if (end - start <= size)
+            return (size - (end - start)) / 2 - start;
+        if (start > 0)
+            return -start;
+        if (end < size)
+            return size - end;
+        return 0;
+    }
+
+    /**
+     * Works out the tiles covering the visible part of the source, at the sample size matching the
+     * current zoom, and decodes the missing ones. No tiles are needed while the base image has at
+     * least a pixel for each pixel on screen.
+     */
+    private void updateTiles() {
+        Drawable drawable = getDrawable();
+
+        if (decoder == null || drawable == null || drawable.getIntrinsicWidth() <= 0 || getScale() <= 1f) {
+            wantedTiles = Collections.emptySet();
+            visibleTiles = new ArrayList<>();
+            return;
+        }
+
+        float drawableToSource = (float) sourceWidth / drawable.getIntrinsicWidth();
+        float screenPerSource = getScale() / drawableToSource;
+
+        int sampleSize = 1;
+        while (screenPerSource * sampleSize * 2 <= 1f)
+            sampleSize *= 2;
+
+        Matrix inverse = new Matrix();
+        if (!matrix.invert(inverse))
+            return;
+
+        RectF visible = new RectF(0, 0, getWidth() - getPaddingLeft() - getPaddingRight(), getHeight() - getPaddingTop() - getPaddingBottom());
+        inverse.mapRect(visible);
+
+        int tileSize = TILE_SIZE * sampleSize;
+        int firstColumn = Math.max(0, (int) (visible.left * drawableToSource) / tileSize);
+        int lastColumn = Math.min((sourceWidth - 1) / tileSize, (int) (visible.right * drawableToSource) / tileSize);
+        int firstRow = Math.max(0, (int) (visible.top * drawableToSource) / tileSize);
+        int lastRow = Math.min((sourceHeight - 1) / tileSize, (int) (visible.bottom * drawableToSource) / tileSize);
+
+        List<Tile> newTiles = new ArrayList<>();
+        Set<String> newKeys = new HashSet<>();
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Rect region = new Rect(column * tileSize, row * tileSize,
+                        Math.min(sourceWidth, (column + 1) * tileSize), Math.min(sourceHeight, (row + 1) * tileSize));
+                Tile tile = new Tile(sampleSize + ":" + column + ":" + row, region, sampleSize);
+
+                newTiles.add(tile);
+                newKeys.add(tile.key);
+            }
+        }
+
+        visibleTiles = newTiles;
+        wantedTiles = newKeys;
+
+        for (Tile tile : newTiles) {
+            if (tiles.get(tile.key) == null && pendingTiles.add(tile.key))
+                decodeTile(tile);
+        }
+    }
+
+    private void decodeTile(final Tile tile) {
+        final BitmapRegionDecoder tileDecoder = decoder;
+
+        tileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+
+                // Tiles scrolled out of view before their turn are skipped
+                if (wantedTiles.contains(tile.key) && !tileDecoder.isRecycled())
+                    bitmap = decodeRegion(tileDecoder, tile);
+
+                final Bitmap decoded = bitmap;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        pendingTiles.remove(tile.key);
+
+                        if (decoded == null)
+                            return;
+
+                        if (tileDecoder != decoder) {
+                            BitmapPool.getInstance().put(decoded);
+                            return;
+                        }
+
+                        // Older tiles make room for the new one when the list caches cannot
+                        BitmapBudget budget = BitmapBudget.getInstance();
+                        if (!budget.request(BitmapBudget.PRIORITY_ZOOM, decoded.getByteCount()))
+                            tiles.trimToSize((int) Math.max(0, tiles.size() + budget.getAvailableBytes() - decoded.getByteCount()));
+
+                        tiles.put(tile.key, decoded);
+                        invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    private static Bitmap decodeRegion(BitmapRegionDecoder regionDecoder, Tile tile) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = tile.sampleSize;
+        options.inPreferredConfig = BitmapDecoder.getPreferredConfig();
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.getInstance().get(tile.decodedWidth(), tile.decodedHeight(), options.inPreferredConfig);
+
+        try {
+            return regionDecoder.decodeRegion(tile.region, options);
+        } catch (IllegalArgumentException e) {
+            // Recycled decoder, or a pooled bitmap it could not reuse
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+
+            if (regionDecoder.isRecycled())
+                return null;
+            return regionDecoder.decodeRegion(tile.region, options);
+        }
+    }
+
+    private static void recycleDecoder(final BitmapRegionDecoder regionDecoder) {
+        if (regionDecoder == null)
+            return;
+
+        // On the tile thread, so it is never recycled in the middle of a decode
+        tileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                regionDecoder.recycle();
+            }
+        });
+    }
+
+    private static class Tile {
+
+        final String key;
+        final Rect region;
+        final int sampleSize;
+
+        Tile(String key, Rect region, int sampleSize) {
+            this.key = key;
+            this.region = region;
+            this.sampleSize = sampleSize;
+        }
+
+        int decodedWidth() {
+            return (int) Math.ceil((double) region.width() / sampleSize);
+        }
+
+        int decodedHeight() {
+            return (int) Math.ceil((double) region.height() / sampleSize);
+        }
+    }
+}
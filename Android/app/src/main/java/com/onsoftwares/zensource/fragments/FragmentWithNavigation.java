@@ -3,6 +3,7 @@ package com.onsoftwares.zensource.fragments;
 import android.support.v4.app.Fragment;
 
 import com.onsoftwares.zensource.interfaces.NavigationActivityHandler;
+import com.onsoftwares.zensource.utils.httputil.RequestScope;
 
 /**
  * Created by Menighin on 05/01/2018.
@@ -10,6 +11,8 @@ import com.onsoftwares.zensource.interfaces.NavigationActivityHandler;
 
 public class FragmentWithNavigation extends Fragment {
 
+    private RequestScope requestScope;
+
     public void activateNavigation() {
         if (getActivity() != null)
             ((NavigationActivityHandler) getActivity()).activateNavigation();
@@ -20,4 +23,22 @@ public class FragmentWithNavigation extends Fragment {
             ((NavigationActivityHandler) getActivity()).deactivateNavigation();
     }
 
+    /**
+     * Scope of the requests made for the current view, closed when the view is destroyed.
+     */
+    protected RequestScope getRequestScope() {
+        if (requestScope == null)
+            requestScope = new RequestScope();
+        return requestScope;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        if (requestScope != null) {
+            requestScope.close();
+            requestScope = null;
+        }
+    }
 }
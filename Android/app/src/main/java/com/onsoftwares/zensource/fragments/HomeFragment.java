@@ -5,17 +5,13 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.FileProvider;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -43,16 +39,16 @@ import com.onsoftwares.zensource.interfaces.OnZenCardAction;
 import com.onsoftwares.zensource.models.ZenCardModel;
 import com.onsoftwares.zensource.utils.ZenCardUtils;
 import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
 import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.httputil.RequestScope;
+import com.onsoftwares.zensource.utils.imageutil.ImageSharer;
 
 import org.json.JSONArray;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -69,9 +65,11 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
     private ProgressBar progressBar;
     private TextView homeNoResultsFound;
     private int page = 1;
+    private int refreshes = 0;
     private String search = null;
 
     private boolean loading = false;
+    private boolean loadingMore = false;
 
     public HomeFragment() {
         // Required empty public constructor
@@ -125,6 +123,18 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
         return view;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        recyclerAdapter.resumePrefetch();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        recyclerAdapter.pausePrefetch();
+    }
+
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
@@ -167,7 +177,11 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
 
     @Override
     public void onLoadMore() {
-        if (page != 0) {
+        if (page != 0 && !loadingMore) {
+
+            loadingMore = true;
+            final int requested = page++;
+            final int refresh = refreshes;
 
             homeCardsList.add(null);
 
@@ -175,69 +189,149 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
 
             HttpUtil.Builder httpBuilder = HttpUtil.Builder()
                     .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/images")
-                    .addQueryParameter("page", (page++) + "")
-                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()));
+                    .withCallType(HttpCallType.PAGE)
+                    .withHedging()
+                    .addQueryParameter("page", requested + "")
+                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()))
+                    .addQueryParameter("meta", ZenSourceUtils.METADATA_ONLY_PAGES + "");
 
             if (this.search != null)
                 httpBuilder.addQueryParameter("search", search);
 
             // super.deactivateNavigation();
 
+            // Cards are added as soon as they are parsed, the loading item goes away with the
+            // first one
+            final boolean[] loadingItemRemoved = { false };
+            final List<ZenCardModel> added = new ArrayList<>();
+            final RequestScope scope = getRequestScope();
+
             httpBuilder
-                    .withConverter(new ZenCardModel())
+                    .withStreamConverter(new ZenCardModel.StreamConverter())
+                    .inScope(scope)
+                    .onItem(new HttpUtil.CallbackItem<ZenCardModel>() {
+                        @Override
+                        public void callback(final ZenCardModel zenCard) {
+                            scope.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    // The list was refreshed meanwhile
+                                    if (refresh != refreshes)
+                                        return;
+
+                                    if (!loadingItemRemoved[0]) {
+                                        removeLoadingItem();
+                                        loadingItemRemoved[0] = true;
+                                    }
+
+                                    setZenCardLikedState(Collections.singletonList(zenCard));
+
+                                    added.add(zenCard);
+                                    homeCardsList.add(zenCard);
+                                    recyclerAdapter.notifyItemInserted(homeCardsList.size() - 1);
+                                }
+                            });
+                        }
+                    })
                     .ifSuccess(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                         @Override
                         public void callback(final List<ZenCardModel> list) {
 
-                            if (getActivity() != null)
-                                getActivity().runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-
-                                        // HomeFragment.super.activateNavigation();
+                            scope.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (refresh != refreshes) {
+                                        removeLoadingItem();
+                                        return;
+                                    }
 
-                                        //Remove loading item
-                                        homeCardsList.remove(homeCardsList.size() - 1);
-                                        recyclerAdapter.notifyItemRemoved(homeCardsList.size());
+                                    // HomeFragment.super.activateNavigation();
 
-                                        recyclerAdapter.setLoading(false);
+                                    if (!loadingItemRemoved[0]) {
+                                        removeLoadingItem();
+                                        loadingItemRemoved[0] = true;
+                                    }
 
-                                        setZenCardLikedState(list);
+                                    recyclerAdapter.setLoading(false);
 
-                                        homeCardsList.addAll(list);
-                                        homeCardRecyclerView.getAdapter().notifyDataSetChanged();
-                                        progressBar.setVisibility(View.INVISIBLE);
-                                        loading = false;
+                                    progressBar.setVisibility(View.INVISIBLE);
+                                    loading = false;
+                                    loadingMore = false;
 
-                                        if (list.size() == 0) page = 0;
-                                    }
-                                });
+                                    if (list.size() == 0) page = 0;
+                                }
+                            });
                         }
                     })
                     .ifFail(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                         @Override
                         public void callback(List<ZenCardModel> response) {
-                            //HomeFragment.super.activateNavigation();
+                            scope.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (refresh != refreshes) {
+                                        removeLoadingItem();
+                                        return;
+                                    }
+
+                                    //HomeFragment.super.activateNavigation();
+
+                                    if (!loadingItemRemoved[0]) {
+                                        removeLoadingItem();
+                                        loadingItemRemoved[0] = true;
+                                    }
+
+                                    // Retries are over, the same page is asked again on the next
+                                    // scroll, so the cards it delivered before failing go away
+                                    removeCards(added);
+
+                                    recyclerAdapter.setLoading(false);
+                                    progressBar.setVisibility(View.INVISIBLE);
+                                    loading = false;
+                                    loadingMore = false;
+                                    page = requested;
+                                }
+                            });
                         }
                     })
                     .makeGet();
         }
     }
 
+    private void removeCards(List<ZenCardModel> cards) {
+        for (ZenCardModel card : cards) {
+            for (int i = homeCardsList.size() - 1; i >= 0; i--) {
+                if (homeCardsList.get(i) == card) {
+                    homeCardsList.remove(i);
+                    recyclerAdapter.notifyItemRemoved(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void removeLoadingItem() {
+        int last = homeCardsList.size() - 1;
+        if (last >= 0 && homeCardsList.get(last) == null) {
+            homeCardsList.remove(last);
+            recyclerAdapter.notifyItemRemoved(last);
+        }
+    }
+
     @Override
     public void onLike(ZenCardModel z, int pos) {
 
         // Http Put to like the post
-        ZenCardUtils.likeZenQuote(z, new HttpUtil.CallbackVoid() {
+        final RequestScope scope = getRequestScope();
+        ZenCardUtils.likeZenQuote(z, scope, new HttpUtil.CallbackVoid() {
             @Override
             public void callback() {
-                if (getActivity() != null)
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Snackbar.make(homeCardRecyclerView, getResources().getString(R.string.like_success), Snackbar.LENGTH_SHORT).show();
-                        }
-                    });
+                scope.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snackbar.make(homeCardRecyclerView, getResources().getString(R.string.like_success), Snackbar.LENGTH_SHORT).show();
+                    }
+                });
             }
         });
 
@@ -275,16 +369,16 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
     public void onDislike(ZenCardModel z, int pos) {
 
         // Http Put to like the post
-        ZenCardUtils.dislikeZenQuote(z, new HttpUtil.CallbackVoid() {
+        final RequestScope scope = getRequestScope();
+        ZenCardUtils.dislikeZenQuote(z, scope, new HttpUtil.CallbackVoid() {
             @Override
             public void callback() {
-                if (getActivity() != null)
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Snackbar.make(homeCardRecyclerView, getResources().getString(R.string.dislike_success), Snackbar.LENGTH_SHORT).show();
-                        }
-                    });
+                scope.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snackbar.make(homeCardRecyclerView, getResources().getString(R.string.dislike_success), Snackbar.LENGTH_SHORT).show();
+                    }
+                });
             }
         });
 
@@ -319,42 +413,17 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
     }
 
     @Override
-    public void onShare(ImageView imageView) {
-        // Saving image on Cache
-        try {
-            File cachePath = new File(getActivity().getCacheDir(), "images");
-            cachePath.mkdirs(); // don't forget to make the directory
-            FileOutputStream stream = new FileOutputStream(cachePath + "/" + ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png"); // overwrites this image every time
-            ((BitmapDrawable)imageView.getDrawable()).getBitmap().compress(Bitmap.CompressFormat.PNG, 100, stream);
-            stream.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Sharing
-        File imagePath = new File(getActivity().getCacheDir(), "images");
-        File newFile = new File(imagePath,  ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png");
-        Uri contentUri = FileProvider.getUriForFile(getActivity(), ZenSourceUtils.PACKKAGE_NAME + ".fileprovider", newFile);
-
-        if (contentUri != null) {
-
-            Intent shareIntent = new Intent();
-            shareIntent.setAction(Intent.ACTION_SEND);
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            shareIntent.setDataAndType(contentUri, getActivity().getContentResolver().getType(contentUri));
-            shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
-            startActivity(Intent.createChooser(shareIntent, "Choose an app"));
-        }
+    public void onShare(ZenCardModel z, ImageView imageView) {
+        // Written and shared in background, from the encoded image when the card has it
+        ImageSharer.getInstance().share(getActivity(), z, imageView);
     }
 
     @Override
     public void onCardClick(ZenCardModel z, View v) {
         Intent intent = new Intent(getActivity(), ZenCardZoomActivity.class);
 
-        intent.putExtra("image64encoded", z.getImage64encoded());
+        intent.putExtra("id", z.getId());
+        intent.putExtra("language", z.getLanguage());
 
         String transitionName = getActivity().getString(R.string.transition_zoom_card);
 
@@ -371,6 +440,9 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
     private void refreshHomeView(final Callable callback) {
 
         page = 1;
+        loadingMore = false;
+        final int refresh = ++refreshes;
+        final boolean[] delivered = { false };
 
         // Request for the data of the recycler view
         loading = true;
@@ -378,67 +450,125 @@ public class HomeFragment extends FragmentWithNavigation implements OnLoadMoreLi
 
         //super.deactivateNavigation();
 
+        final RequestScope scope = getRequestScope();
+
         HttpUtil.Builder httpBuilder = HttpUtil.Builder()
             .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/images")
+            .withCallType(HttpCallType.PAGE)
+            .withHedging()
             .addQueryParameter("page", page + "")
-            .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()));
+            .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()))
+            .addQueryParameter("meta", ZenSourceUtils.METADATA_ONLY_PAGES + "");
 
             if (this.search != null)
                 httpBuilder.addQueryParameter("search", search);
 
-            httpBuilder.withConverter(new ZenCardModel())
+            httpBuilder.withStreamConverter(new ZenCardModel.StreamConverter())
+            .withCacheMode(HttpUtil.CacheMode.STALE_WHILE_REVALIDATE)
+            .inScope(scope)
             .ifSuccess(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                 @Override
                 public void callback(final List<ZenCardModel> list) {
-                    if (getActivity() != null)
-                        getActivity().runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
+                    scope.runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
 
-                                //HomeFragment.super.activateNavigation();
+                            // The revalidated page, when it changed. It only replaces the stale
+                            // one while the user is still on it, the cards they paged or scrolled
+                            // to stay where they are
+                            if (delivered[0]) {
+                                if (refresh == refreshes && page == 2 && isAtTop())
+                                    replaceFirstPage(list);
+                                return;
+                            }
 
-                                setZenCardLikedState(list);
+                            delivered[0] = true;
 
-                                homeCardsList.clear();
-                                page++;
+                            //HomeFragment.super.activateNavigation();
 
-                                homeCardsList.addAll(list);
-                                progressBar.setVisibility(View.INVISIBLE);
-                                homeCardRecyclerView.setVisibility(View.VISIBLE);
-                                loading = false;
-                                recyclerAdapter.setLoading(false);
-
-                                if (callback != null) {
-                                    try {
-                                        callback.call();
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    }
-                                }
+                            setZenCardLikedState(list);
 
-                                if(homeCardsList.size() == 0) {
-                                    homeCardRecyclerView.setVisibility(View.INVISIBLE);
-                                    homeNoResultsFound.setVisibility(View.VISIBLE);
-                                } else {
-                                    homeNoResultsFound.setVisibility(View.INVISIBLE);
-                                }
+                            homeCardsList.clear();
+                            page = 2;
+
+                            homeCardsList.addAll(list);
+                            progressBar.setVisibility(View.INVISIBLE);
+                            homeCardRecyclerView.setVisibility(View.VISIBLE);
+                            loading = false;
+                            recyclerAdapter.setLoading(false);
 
-                                homeCardRecyclerView.getAdapter().notifyDataSetChanged();
+                            if (callback != null) {
+                                try {
+                                    callback.call();
+                                } catch (Exception e) {
+                                    e.printStackTrace();
+                                }
+                            }
 
-                                homeCardRecyclerView.getLayoutManager().scrollToPosition(0);
+                            if(homeCardsList.size() == 0) {
+                                homeCardRecyclerView.setVisibility(View.INVISIBLE);
+                                homeNoResultsFound.setVisibility(View.VISIBLE);
+                            } else {
+                                homeNoResultsFound.setVisibility(View.INVISIBLE);
                             }
-                        });
+
+                            homeCardRecyclerView.getAdapter().notifyDataSetChanged();
+
+                            homeCardRecyclerView.getLayoutManager().scrollToPosition(0);
+                        }
+                    });
                 }
             })
             .ifFail(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                 @Override
                 public void callback(List<ZenCardModel> response) {
-                    //HomeFragment.super.activateNavigation();
+                    scope.runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            //HomeFragment.super.activateNavigation();
+
+                            // The cards shown before stay there
+                            progressBar.setVisibility(View.INVISIBLE);
+                            if (homeCardsList.size() > 0)
+                                homeCardRecyclerView.setVisibility(View.VISIBLE);
+
+                            loading = false;
+                            recyclerAdapter.setLoading(false);
+
+                            if (callback != null) {
+                                try {
+                                    callback.call();
+                                } catch (Exception e) {
+                                    e.printStackTrace();
+                                }
+                            }
+                        }
+                    });
                 }
             })
             .makeGet();
     }
 
+    private boolean isAtTop() {
+        return ((LinearLayoutManager) homeCardRecyclerView.getLayoutManager()).findFirstVisibleItemPosition() <= 0;
+    }
+
+    private void replaceFirstPage(List<ZenCardModel> list) {
+        setZenCardLikedState(list);
+
+        homeCardsList.clear();
+        homeCardsList.addAll(list);
+        recyclerAdapter.notifyDataSetChanged();
+
+        if (homeCardsList.size() == 0) {
+            homeCardRecyclerView.setVisibility(View.INVISIBLE);
+            homeNoResultsFound.setVisibility(View.VISIBLE);
+        } else {
+            homeCardRecyclerView.setVisibility(View.VISIBLE);
+            homeNoResultsFound.setVisibility(View.INVISIBLE);
+        }
+    }
+
     private void setZenCardLikedState(List<ZenCardModel> list) {
         String likedQuotesStr = ZenSourceUtils.getSharedPreferencesValue(getActivity(), SharedPreferencesEnum.LIKED_QUOTES.value(), String.class);
         HashSet<String> likedQuotes = likedQuotesStr == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(likedQuotesStr.split(";")));
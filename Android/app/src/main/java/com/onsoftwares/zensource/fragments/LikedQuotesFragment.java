@@ -3,15 +3,11 @@ package com.onsoftwares.zensource.fragments;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.FileProvider;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
@@ -34,20 +30,22 @@ import com.onsoftwares.zensource.interfaces.OnZenCardAction;
 import com.onsoftwares.zensource.models.ZenCardModel;
 import com.onsoftwares.zensource.utils.ZenCardUtils;
 import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
+import com.onsoftwares.zensource.utils.httputil.HttpException;
+import com.onsoftwares.zensource.utils.httputil.HttpFuture;
 import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.httputil.RequestScope;
+import com.onsoftwares.zensource.utils.imageutil.ImageSharer;
 
 import org.w3c.dom.Text;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoadMoreListener, OnZenCardAction {
 
@@ -59,6 +57,10 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
     private HomeCardRecyclerAdapter recyclerAdapter;
     private int page = 1;
     private int perPage = 5;
+    private int refreshes = 0;
+    private boolean loadingMore = false;
+
+    private static final int LOAD_MORE_TIMEOUT_SECONDS = 30;
 
     public LikedQuotesFragment() {
         // Required empty public constructor
@@ -96,11 +98,26 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
     }
 
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        recyclerAdapter.resumePrefetch();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        recyclerAdapter.pausePrefetch();
+    }
+
     private void refreshData() {
 
         refreshNumberLiked();
 
         page = 1;
+        loadingMore = false;
+        final int refresh = ++refreshes;
+        final boolean[] delivered = { false };
 
         if (likedQuoteIds != null && likedQuoteIds.length() > 0) {
 
@@ -109,50 +126,79 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
             // Request for the data of the recycler view
             progressBar.setVisibility(View.VISIBLE);
             recyclerAdapter.setLoading(true);
+
+            final RequestScope scope = getRequestScope();
+
             HttpUtil.Builder httpBuilder = HttpUtil.Builder()
                     .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/images")
+                    .withCallType(HttpCallType.PAGE)
+                    .withHedging()
                     .addQueryParameter("page", page + "")
                     .addQueryParameter("ids", likedQuoteIds)
-                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()));
+                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()))
+                    .addQueryParameter("meta", ZenSourceUtils.METADATA_ONLY_PAGES + "");
 
-            httpBuilder.withConverter(new ZenCardModel())
+            httpBuilder.withStreamConverter(new ZenCardModel.StreamConverter())
+                    .withCacheMode(HttpUtil.CacheMode.STALE_WHILE_REVALIDATE)
+                    .inScope(scope)
                     .ifSuccess(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                         @Override
                         public void callback(final List<ZenCardModel> list) {
-                            if (getActivity() != null)
-                                getActivity().runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
+                            scope.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
 
-                                        //LikedQuotesFragment.super.activateNavigation();
+                                    // Setting all as liked
+                                    for (int i = 0; i < list.size(); i++) {
+                                        list.get(i).setLiked(true);
+                                    }
 
-                                        // Setting all as liked
-                                        for (int i = 0; i < list.size(); i++) {
-                                            list.get(i).setLiked(true);
+                                    // The revalidated page, when it changed, only replaces the
+                                    // stale one while the user has not paged nor scrolled
+                                    if (delivered[0]) {
+                                        if (refresh == refreshes && page == 2 && isAtTop()) {
+                                            likedList.clear();
+                                            likedList.addAll(list);
+                                            recyclerView.setVisibility(likedList.size() == 0 ? View.INVISIBLE : View.VISIBLE);
+                                            recyclerAdapter.notifyDataSetChanged();
                                         }
+                                        return;
+                                    }
 
-                                        likedList.clear();
-                                        page++;
+                                    delivered[0] = true;
 
-                                        likedList.addAll(list);
-                                        progressBar.setVisibility(View.INVISIBLE);
-                                        recyclerView.setVisibility(View.VISIBLE);
-                                        recyclerAdapter.setLoading(false);
+                                    //LikedQuotesFragment.super.activateNavigation();
 
-                                        if (likedList.size() == 0) {
-                                            recyclerView.setVisibility(View.INVISIBLE);
-                                        }
+                                    likedList.clear();
+                                    page = 2;
+
+                                    likedList.addAll(list);
+                                    progressBar.setVisibility(View.INVISIBLE);
+                                    recyclerView.setVisibility(View.VISIBLE);
+                                    recyclerAdapter.setLoading(false);
 
-                                        recyclerView.getAdapter().notifyDataSetChanged();
-                                        recyclerView.getLayoutManager().scrollToPosition(0);
+                                    if (likedList.size() == 0) {
+                                        recyclerView.setVisibility(View.INVISIBLE);
                                     }
-                                });
+
+                                    recyclerView.getAdapter().notifyDataSetChanged();
+                                    recyclerView.getLayoutManager().scrollToPosition(0);
+                                }
+                            });
                         }
                     })
                     .ifFail(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
                         @Override
                         public void callback(List<ZenCardModel> response) {
-                            //LikedQuotesFragment.super.activateNavigation();
+                            scope.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    //LikedQuotesFragment.super.activateNavigation();
+
+                                    progressBar.setVisibility(View.INVISIBLE);
+                                    recyclerAdapter.setLoading(false);
+                                }
+                            });
                         }
                     })
                     .makeGet();
@@ -163,7 +209,11 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
 
     @Override
     public void onLoadMore() {
-        if (page != 0) {
+        if (page != 0 && !loadingMore) {
+
+            loadingMore = true;
+            final int requested = page++;
+            final int refresh = refreshes;
 
             likedList.add(null);
 
@@ -173,52 +223,69 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
 
             HttpUtil.Builder httpBuilder = HttpUtil.Builder()
                     .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/images")
-                    .addQueryParameter("page", (page++) + "")
+                    .withCallType(HttpCallType.PAGE)
+                    .withHedging()
+                    .addQueryParameter("page", requested + "")
                     .addQueryParameter("ids", likedQuoteIds)
-                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()));
+                    .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getContext()))
+                    .addQueryParameter("meta", ZenSourceUtils.METADATA_ONLY_PAGES + "");
 
+            // Delivered on the main thread, and cancelled with the view
             httpBuilder
-                    .withConverter(new ZenCardModel())
-                    .ifSuccess(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
+                    .withStreamConverter(new ZenCardModel.StreamConverter())
+                    .inScope(getRequestScope())
+                    .<List<ZenCardModel>>getAsync()
+                    .withTimeout(LOAD_MORE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .addListener(new HttpFuture.Listener<List<ZenCardModel>>() {
                         @Override
-                        public void callback(final List<ZenCardModel> list) {
-                            if (getActivity() != null)
-                                getActivity().runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
+                        public void onSuccess(List<ZenCardModel> list) {
+                            //LikedQuotesFragment.super.activateNavigation();
 
-                                        //LikedQuotesFragment.super.activateNavigation();
+                            removeLoadingItem();
 
-                                        //Remove loading item
-                                        likedList.remove(likedList.size() - 1);
-                                        recyclerAdapter.notifyItemRemoved(likedList.size());
+                            // The list was refreshed meanwhile
+                            if (refresh != refreshes)
+                                return;
 
-                                        recyclerAdapter.setLoading(false);
+                            loadingMore = false;
 
-                                        // Setting all as liked
-                                        for (int i = 0; i < list.size(); i++) {
-                                            list.get(i).setLiked(true);
-                                        }
+                            // Setting all as liked
+                            for (int i = 0; i < list.size(); i++) {
+                                list.get(i).setLiked(true);
+                            }
 
-                                        likedList.addAll(list);
-                                        recyclerView.getAdapter().notifyDataSetChanged();
-                                        progressBar.setVisibility(View.INVISIBLE);
+                            likedList.addAll(list);
+                            recyclerView.getAdapter().notifyDataSetChanged();
+                            progressBar.setVisibility(View.INVISIBLE);
 
-                                        if (list.size() == 0) page = 0;
-                                    }
-                                });
+                            if (list.size() == 0) page = 0;
                         }
-                    })
-                    .ifFail(new HttpUtil.CallbackConverted<List<ZenCardModel>>() {
+
                         @Override
-                        public void callback(List<ZenCardModel> response) {
-                            //LikedQuotesFragment.super.activateNavigation();
+                        public void onFailure(HttpException e) {
+                            removeLoadingItem();
+
+                            if (refresh != refreshes)
+                                return;
+
+                            // The same page is asked again on the next scroll
+                            loadingMore = false;
+                            page = requested;
                         }
-                    })
-                    .makeGet();
+                    });
         }
     }
 
+    private void removeLoadingItem() {
+        int last = likedList.size() - 1;
+        if (last >= 0 && likedList.get(last) == null) {
+            likedList.remove(last);
+            recyclerAdapter.notifyItemRemoved(last);
+        }
+
+        recyclerAdapter.setLoading(false);
+    }
+
     @Override
     public void onLike(final ZenCardModel z, int pos) {
        // Do nothing
@@ -228,18 +295,18 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
     public void onDislike(ZenCardModel z, final int pos) {
 
         // Http Put to like the post
-        ZenCardUtils.dislikeZenQuote(z, new HttpUtil.CallbackVoid() {
+        final RequestScope scope = getRequestScope();
+        ZenCardUtils.dislikeZenQuote(z, scope, new HttpUtil.CallbackVoid() {
             @Override
             public void callback() {
-                if (getActivity() != null)
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Snackbar.make(recyclerView, getResources().getString(R.string.dislike_success), Snackbar.LENGTH_SHORT).show();
-                            recyclerAdapter.deleteItem(pos);
-                            refreshNumberLiked();
-                        }
-                    });
+                scope.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snackbar.make(recyclerView, getResources().getString(R.string.dislike_success), Snackbar.LENGTH_SHORT).show();
+                        recyclerAdapter.deleteItem(pos);
+                        refreshNumberLiked();
+                    }
+                });
             }
         });
 
@@ -277,7 +344,8 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
     public void onCardClick(ZenCardModel z, View v) {
         Intent intent = new Intent(getActivity(), ZenCardZoomActivity.class);
 
-        intent.putExtra("image64encoded", z.getImage64encoded());
+        intent.putExtra("id", z.getId());
+        intent.putExtra("language", z.getLanguage());
 
         String transitionName = getActivity().getString(R.string.transition_zoom_card);
 
@@ -292,35 +360,13 @@ public class LikedQuotesFragment extends FragmentWithNavigation implements OnLoa
     }
 
     @Override
-    public void onShare(ImageView imageView) {
-        // Saving image on Cache
-        try {
-            File cachePath = new File(getActivity().getCacheDir(), "images");
-            cachePath.mkdirs(); // don't forget to make the directory
-            FileOutputStream stream = new FileOutputStream(cachePath + "/" + ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png"); // overwrites this image every time
-            ((BitmapDrawable)imageView.getDrawable()).getBitmap().compress(Bitmap.CompressFormat.PNG, 100, stream);
-            stream.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Sharing
-        File imagePath = new File(getActivity().getCacheDir(), "images");
-        File newFile = new File(imagePath,  ZenSourceUtils.IMAGE_NAME_ON_CACHE + ".png");
-        Uri contentUri = FileProvider.getUriForFile(getActivity(), ZenSourceUtils.PACKKAGE_NAME + ".fileprovider", newFile);
-
-        if (contentUri != null) {
+    public void onShare(ZenCardModel z, ImageView imageView) {
+        // Written and shared in background, from the encoded image when the card has it
+        ImageSharer.getInstance().share(getActivity(), z, imageView);
+    }
 
-            Intent shareIntent = new Intent();
-            shareIntent.setAction(Intent.ACTION_SEND);
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            shareIntent.setDataAndType(contentUri, getActivity().getContentResolver().getType(contentUri));
-            shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
-            startActivity(Intent.createChooser(shareIntent, "Choose an app"));
-        }
+    private boolean isAtTop() {
+        return ((LinearLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition() <= 0;
     }
 
     private void refreshNumberLiked() {
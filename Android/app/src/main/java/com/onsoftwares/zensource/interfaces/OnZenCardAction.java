@@ -13,5 +13,5 @@ public interface OnZenCardAction {
     void onLike(ZenCardModel z, int pos);
     void onDislike(ZenCardModel z, int pos);
     void onCardClick(ZenCardModel z, View v);
-    void onShare(ImageView imageView);
+    void onShare(ZenCardModel z, ImageView imageView);
 }
@@ -1,11 +1,19 @@
 package com.onsoftwares.zensource.models;
 
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import com.onsoftwares.zensource.utils.httputil.IHttpResponseConverter;
+import com.onsoftwares.zensource.utils.httputil.IHttpStreamConverter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -17,7 +25,7 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
     private String message;
     private String author;
     private String language;
-    private String image64encoded;
+    private byte[] image;
     private Date createdOn;
     private int likes;
     private int dislikes;
@@ -29,12 +37,12 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
         tags = new ArrayList<String>();
     }
 
-    public ZenCardModel(int id, String message, String author, String language, String image64encoded, Date createdOn, int likes, int dislikes, List<String> tags) {
+    public ZenCardModel(int id, String message, String author, String language, byte[] image, Date createdOn, int likes, int dislikes, List<String> tags) {
         this.id = id;
         this.message = message;
         this.author = author;
         this.language = language;
-        this.image64encoded = image64encoded;
+        this.image = image;
         this.createdOn = createdOn;
         this.likes = likes;
         this.dislikes = dislikes;
@@ -43,12 +51,12 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
         this.disliked = false;
     }
 
-    public ZenCardModel(int id, String message, String author, String language, String image64encoded, int likes, int dislikes) {
+    public ZenCardModel(int id, String message, String author, String language, byte[] image, int likes, int dislikes) {
         this.id = id;
         this.message = message;
         this.author = author;
         this.language = language;
-        this.image64encoded = image64encoded;
+        this.image = image;
         this.likes = likes;
         this.dislikes = dislikes;
         this.disliked = false;
@@ -87,12 +95,19 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
         this.language = language;
     }
 
-    public String getImage64encoded() {
-        return image64encoded;
+    /**
+     * Encoded image bytes, already decoded from the base64 sent by the API.
+     */
+    public byte[] getImage() {
+        return image;
+    }
+
+    public void setImage(byte[] image) {
+        this.image = image;
     }
 
-    public void setImage64encoded(String image64encoded) {
-        this.image64encoded = image64encoded;
+    public boolean hasImage() {
+        return image != null && image.length > 0;
     }
 
     public Date getCreatedOn() {
@@ -161,11 +176,11 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
             String message = j.getString("message");
             String author = j.getString("author");
             String language = j.getString("language");
-            String image64encoded = j.getString("image64Encoded");
+            byte[] image = j.isNull("image64Encoded") ? null : Base64.decode(j.getString("image64Encoded"), Base64.DEFAULT);
             int likes = j.getInt("likes");
             int dislikes = j.getInt("dislikes");
 
-            list.add(new ZenCardModel(id, message, author, language, image64encoded, likes, dislikes));
+            list.add(new ZenCardModel(id, message, author, language, image, likes, dislikes));
 
         }
 
@@ -181,12 +196,75 @@ public class ZenCardModel implements IHttpResponseConverter<List<ZenCardModel>>
             String message = j.getString("message");
             String author = j.getString("author");
             String language = j.getString("language");
-            String image64encoded = j.getString("image64Encoded");
+            byte[] image = j.isNull("image64Encoded") ? null : Base64.decode(j.getString("image64Encoded"), Base64.DEFAULT);
             int likes = j.getInt("likes");
             int dislikes = j.getInt("dislikes");
 
-            return new ZenCardModel(id, message, author, language, image64encoded, likes, dislikes);
+            return new ZenCardModel(id, message, author, language, image, likes, dislikes);
+
+        }
+    }
+
+    public static class StreamConverter implements IHttpStreamConverter<ZenCardModel> {
+        @Override
+        public List<ZenCardModel> convertHttpResponse(InputStream response, OnItemConverted<ZenCardModel> listener) throws IOException {
+            ArrayList<ZenCardModel> list = new ArrayList<>();
+            JsonReader reader = new JsonReader(new InputStreamReader(response, "UTF-8"));
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                ZenCardModel z = readZenCard(reader);
+                list.add(z);
+
+                if (listener != null)
+                    listener.onItemConverted(z);
+            }
+            reader.endArray();
+
+            return list;
+        }
 
+        private ZenCardModel readZenCard(JsonReader reader) throws IOException {
+            ZenCardModel z = new ZenCardModel();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "id":
+                        z.setId(reader.nextInt());
+                        break;
+                    case "message":
+                        z.setMessage(reader.nextString());
+                        break;
+                    case "author":
+                        z.setAuthor(reader.nextString());
+                        break;
+                    case "language":
+                        z.setLanguage(reader.nextString());
+                        break;
+                    case "image64Encoded":
+                        z.setImage(Base64.decode(reader.nextString(), Base64.DEFAULT));
+                        break;
+                    case "likes":
+                        z.setLikes(reader.nextInt());
+                        break;
+                    case "dislikes":
+                        z.setDislikes(reader.nextInt());
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return z;
         }
     }
 
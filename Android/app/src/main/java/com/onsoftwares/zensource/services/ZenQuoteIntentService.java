@@ -5,6 +5,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
@@ -18,10 +19,15 @@ import com.onsoftwares.zensource.fragments.HomeFragment;
 import com.onsoftwares.zensource.models.ZenCardModel;
 import com.onsoftwares.zensource.receivers.ZenQuoteReceiver;
 import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
 import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.imageutil.BitmapBudget;
+import com.onsoftwares.zensource.utils.imageutil.BitmapDecoder;
+import com.onsoftwares.zensource.utils.imageutil.ImageLoader;
 
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Menighin on 15/01/2018.
@@ -32,6 +38,7 @@ public class ZenQuoteIntentService extends IntentService {
     private static final int NOTIFICATION_ID = 1;
     private static final String ACTION_START = "ACTION_START";
     private static final String ACTION_DELETE = "ACTION_DELETE";
+    private static final long QUOTE_TIMEOUT_SECONDS = 90;
 
     public ZenQuoteIntentService() {
         super(ZenQuoteIntentService.class.getSimpleName());
@@ -71,49 +78,71 @@ public class ZenQuoteIntentService extends IntentService {
         return intent;
     }
 
+    private Bitmap getLargeIcon(byte[] image) {
+        int width = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+
+        // The app icon is enough when the bitmaps of the screens in use leave no room
+        Bitmap icon = BitmapBudget.getInstance().request(BitmapBudget.PRIORITY_BACKGROUND, (long) width * height * 4)
+                ? BitmapDecoder.decode(image, width, height)
+                : null;
+
+        return icon != null ? icon : BitmapFactory.decodeResource(getResources(), R.mipmap.zensource_notification);
+    }
+
     private void processStartNotification() {
         Log.i("Broadcast", "Getting random quote");
 
-        // Get random quote and show in notification
-        HttpUtil.Builder()
-            .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/randomQuote")
-            .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getApplicationContext()))
-            .withConverter(new ZenCardModel.SingleItemConverter())
-            .ifSuccess(new HttpUtil.CallbackConverted<ZenCardModel>() {
-                @Override
-                public void callback(final ZenCardModel zenCard) {
-
-                    Log.i("Broadcast", "Returned from random Quote");
-
-                    try {
-                        final NotificationCompat.Builder builder = new NotificationCompat.Builder(getApplicationContext());
-                        builder.setContentTitle(getResources().getString(R.string.daily_quote_title))
-                                .setAutoCancel(true)
-                                .setColor(getResources().getColor(R.color.colorAccent))
-                                .setContentText(getResources().getString(R.string.daily_quote_content) + " " + zenCard.getAuthor())
-                                .setSmallIcon(R.mipmap.zensource_notification)
-                                .setVibrate(new long[] { 1000, 1000, 500})
-                                .setLargeIcon(BitmapFactory.decodeResource(getResources(), R.mipmap.zensource_notification));
-
-                        Intent intent = new Intent(getApplicationContext(), ZenCardZoomActivity.class);
-                        intent.putExtra("image64encoded", zenCard.getImage64encoded());
-
-                        PendingIntent pendingIntent = PendingIntent.getActivity(getApplicationContext(),
-                                NOTIFICATION_ID,
-                                intent,
-                                PendingIntent.FLAG_UPDATE_CURRENT);
-
-
-                        builder.setContentIntent(pendingIntent);
-                        final NotificationManager manager = (NotificationManager) getApplicationContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                        manager.notify(NOTIFICATION_ID, builder.build());
-                    }
-                    catch(Exception e) {
-                        Log.e("Braodcast", e.getMessage());
-                        e.printStackTrace();
-                    }
-                }
-            }).makeGet();
+        // The quote and its image are fetched on this thread, which keeps the wake lock until
+        // the notification is shown. The image is never fetched from a request callback, it
+        // would wait for the slot the quote request still holds.
+        try {
+            ZenCardModel zenCard = HttpUtil.Builder()
+                .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/randomQuote")
+                .withCallType(HttpCallType.BACKGROUND)
+                .addQueryParameter("l", ZenSourceUtils.getLanguageAPICode(getApplicationContext()))
+                .addQueryParameter("meta", "true")
+                .withConverter(new ZenCardModel.SingleItemConverter())
+                .<ZenCardModel>getAsync()
+                .get(QUOTE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            Log.i("Broadcast", "Returned from random Quote");
+
+            // An empty answer, there is no quote to show today
+            if (zenCard == null) {
+                Log.w("ZenQuoteIntentService", "No daily quote was returned");
+                return;
+            }
+
+            // The image comes from the disk store when the quote was seen before
+            byte[] image = ImageLoader.getInstance().getEncodedImage(zenCard);
+            zenCard.setImage(image);
 
+            final NotificationCompat.Builder builder = new NotificationCompat.Builder(getApplicationContext());
+            builder.setContentTitle(getResources().getString(R.string.daily_quote_title))
+                    .setAutoCancel(true)
+                    .setColor(getResources().getColor(R.color.colorAccent))
+                    .setContentText(getResources().getString(R.string.daily_quote_content) + " " + zenCard.getAuthor())
+                    .setSmallIcon(R.mipmap.zensource_notification)
+                    .setVibrate(new long[] { 1000, 1000, 500})
+                    .setLargeIcon(getLargeIcon(image));
+
+            Intent intent = new Intent(getApplicationContext(), ZenCardZoomActivity.class);
+            intent.putExtra("id", zenCard.getId());
+            intent.putExtra("language", zenCard.getLanguage());
+
+            PendingIntent pendingIntent = PendingIntent.getActivity(getApplicationContext(),
+                    NOTIFICATION_ID,
+                    intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+
+
+            builder.setContentIntent(pendingIntent);
+            final NotificationManager manager = (NotificationManager) getApplicationContext().getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, builder.build());
+        }
+        catch(Exception e) {
+            Log.e("ZenQuoteIntentService", "Could not show the daily quote", e);
+        }
     }
 }
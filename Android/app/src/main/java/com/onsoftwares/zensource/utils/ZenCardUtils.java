@@ -6,7 +6,9 @@ import android.view.View;
 
 import com.onsoftwares.zensource.R;
 import com.onsoftwares.zensource.models.ZenCardModel;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
 import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.httputil.RequestScope;
 
 import java.util.concurrent.Callable;
 
@@ -16,9 +18,10 @@ import java.util.concurrent.Callable;
 
 public class ZenCardUtils {
 
-    public static void likeZenQuote(ZenCardModel z, final HttpUtil.CallbackVoid callback) {
+    public static void likeZenQuote(ZenCardModel z, RequestScope scope, final HttpUtil.CallbackVoid callback) {
         HttpUtil.Builder builder = HttpUtil.Builder()
                 .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/" + z.getId() + "/rate")
+                .withCallType(HttpCallType.RATE)
                 .addRequestBody("id", z.getId() + "");
 
 
@@ -31,12 +34,14 @@ public class ZenCardUtils {
         else
             builder.addRequestBody("dislike", "0");
 
-        builder.ifSuccess(callback).makePut();
+        // The rate is sent even if the screen goes away, only the callback is dropped
+        builder.ifSuccess(callback).inScope(scope, false).makePut();
     }
 
-    public static void dislikeZenQuote(ZenCardModel z, final HttpUtil.CallbackVoid callback) {
+    public static void dislikeZenQuote(ZenCardModel z, RequestScope scope, final HttpUtil.CallbackVoid callback) {
         HttpUtil.Builder builder = HttpUtil.Builder()
                 .withUrl("http://zensource-dev.sa-east-1.elasticbeanstalk.com/api/zen/" + z.getId() + "/rate")
+                .withCallType(HttpCallType.RATE)
                 .addRequestBody("id", z.getId() + "");
 
         if (z.isDisliked()) return;
@@ -48,7 +53,8 @@ public class ZenCardUtils {
         else
             builder.addRequestBody("like", "0");
 
-        builder.ifSuccess(callback).makePut();
+        // The rate is sent even if the screen goes away, only the callback is dropped
+        builder.ifSuccess(callback).inScope(scope, false).makePut();
     }
 
 }
@@ -27,6 +27,14 @@ public class ZenSourceUtils {
 
     public static final String PACKKAGE_NAME = "com.onsoftwares.zensource";
     public static final String IMAGE_NAME_ON_CACHE = "zen_quote";
+    public static final String SITE_URL = "http://zensource-dev.sa-east-1.elasticbeanstalk.com";
+    public static final String API_URL = SITE_URL + "/api/zen";
+
+    // Feed pages come without images, each card fetches its own from /image/{id} when shown
+    public static final boolean METADATA_ONLY_PAGES = true;
+
+    // Cards are drawn on the device from their text, /image/{id} is only the fallback
+    public static final boolean RENDER_CARDS_LOCALLY = true;
 
     public static <T> T getSharedPreferencesValue(Context c, String key, Class<T> returnType) {
         SharedPreferences sharedPref = c.getSharedPreferences(SharedPreferencesEnum.SHARED_PREFERENCES_TAG.value(), Context.MODE_PRIVATE);
@@ -0,0 +1,107 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops sending requests to a host that keeps failing. After a few failures in a row the circuit
+ * of the host opens and requests fail right away, without waking up the radio. Once in a while a
+ * single request is let through to check on the host, and its success closes the circuit again.
+ *
+ * Only failures telling the host is unwell count: no response and 5xx. Other responses, 4xx
+ * included, show it is up.
+ */
+public class CircuitBreaker {
+
+    public static final int FAILURE_THRESHOLD = 5;
+    public static final long OPEN_MILLIS = 30 * 1000;
+
+    public enum State { CLOSED, OPEN }
+
+    private static CircuitBreaker instance;
+
+    private final Map<String, Circuit> circuits = new HashMap<>();
+
+    private long opened;
+    private long rejected;
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int failures;
+        long retryAt;
+    }
+
+    public static synchronized CircuitBreaker getInstance() {
+        if (instance == null)
+            instance = new CircuitBreaker();
+        return instance;
+    }
+
+    /**
+     * Whether a request to the host may be sent. While the circuit is open this lets one request
+     * through every {@link #OPEN_MILLIS} to check on the host.
+     */
+    public boolean allowRequest(String host) {
+        return allowRequest(host, SystemClock.elapsedRealtime());
+    }
+
+    synchronized boolean allowRequest(String host, long now) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null || circuit.state == State.CLOSED)
+            return true;
+
+        if (now >= circuit.retryAt) {
+            circuit.retryAt = now + OPEN_MILLIS;
+            return true;
+        }
+
+        rejected++;
+        return false;
+    }
+
+    public synchronized void onSuccess(String host) {
+        circuits.remove(host);
+    }
+
+    public void onFailure(String host) {
+        onFailure(host, SystemClock.elapsedRealtime());
+    }
+
+    synchronized void onFailure(String host, long now) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(host, circuit);
+        }
+
+        circuit.failures++;
+
+        if (circuit.state == State.OPEN || circuit.failures >= FAILURE_THRESHOLD) {
+            if (circuit.state == State.CLOSED)
+                opened++;
+
+            circuit.state = State.OPEN;
+            circuit.retryAt = now + OPEN_MILLIS;
+        }
+    }
+
+    public synchronized State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit != null ? circuit.state : State.CLOSED;
+    }
+
+    public synchronized long getOpenedCount() {
+        return opened;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker[hosts=" + circuits.size() + ", opened=" + opened + ", rejected=" + rejected + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+/**
+ * Caps the hedges, the second copies of slow GETs, to a share of the requests that may be
+ * hedged, so a slow server is not sent twice its load. Each such request earns a fraction of a
+ * hedge, a hedge spends a whole one, and a few can be saved up for a burst of slow requests.
+ *
+ * Also counts how often hedges were sent and answered first, to tell if they are worth it.
+ */
+public class HedgeBudget {
+
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final double DEFAULT_RATIO = 0.1;
+    public static final double MAX_SAVED = 10;
+
+    // Ten shares of 0.1 add up to a little less than a whole hedge
+    private static final double ROUNDING = 1e-9;
+
+    private static HedgeBudget instance;
+
+    private double ratio = DEFAULT_RATIO;
+    private double tokens;
+
+    private long requests;
+    private long hedges;
+    private long won;
+    private long denied;
+
+    public static synchronized HedgeBudget getInstance() {
+        if (instance == null)
+            instance = new HedgeBudget();
+        return instance;
+    }
+
+    /**
+     * Share of the requests that may be hedged, 0.1 for at most one hedge in ten requests.
+     */
+    public synchronized void setRatio(double ratio) {
+        this.ratio = ratio;
+    }
+
+    synchronized void onRequest() {
+        requests++;
+        tokens = Math.min(tokens + ratio, MAX_SAVED);
+    }
+
+    /**
+     * Whether a hedge may be sent, spending its share of the budget when it may.
+     */
+    synchronized boolean tryHedge() {
+        if (tokens + ROUNDING < 1) {
+            denied++;
+            return false;
+        }
+
+        tokens--;
+        hedges++;
+        return true;
+    }
+
+    synchronized void onHedgeWon() {
+        won++;
+    }
+
+    public synchronized long getRequestCount() {
+        return requests;
+    }
+
+    public synchronized long getHedgeCount() {
+        return hedges;
+    }
+
+    public synchronized long getHedgeWonCount() {
+        return won;
+    }
+
+    public synchronized long getDeniedCount() {
+        return denied;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HedgeBudget[requests=" + requests + ", hedges=" + hedges + ", won=" + won + ", denied=" + denied + "]";
+    }
+}
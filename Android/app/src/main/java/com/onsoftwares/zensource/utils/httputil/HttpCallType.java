@@ -0,0 +1,51 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+/**
+ * Kinds of calls made through {@link HttpUtil}. Each one gets its own timeouts
+ * on top of the shared client kept by {@link HttpClientRegistry}, its own retry policy, and the
+ * priority it is scheduled with by default.
+ */
+public enum HttpCallType {
+
+    DEFAULT(10, 10, 10, new RetryPolicy(2, 500, 2000), Priority.VISIBLE),
+    PAGE(10, 30, 10, new RetryPolicy(3, 500, 4000), Priority.VISIBLE),
+    IMAGE(10, 20, 10, new RetryPolicy(3, 500, 4000), Priority.VISIBLE),
+    RATE(10, 10, 15, new RetryPolicy(3, 1000, 8000), Priority.USER_ACTION),
+    BACKGROUND(15, 60, 15, new RetryPolicy(4, 2000, 30000), Priority.BACKGROUND);
+
+    private int connectTimeout;
+    private int readTimeout;
+    private int writeTimeout;
+    private RetryPolicy retryPolicy;
+    private Priority priority;
+
+    HttpCallType(int connectTimeout, int readTimeout, int writeTimeout, RetryPolicy retryPolicy, Priority priority) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.retryPolicy = retryPolicy;
+        this.priority = priority;
+    }
+
+    public int connectTimeout() {
+        return connectTimeout;
+    }
+
+    public int readTimeout() {
+        return readTimeout;
+    }
+
+    public int writeTimeout() {
+        return writeTimeout;
+    }
+
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    public Priority priority() {
+        return priority;
+    }
+}
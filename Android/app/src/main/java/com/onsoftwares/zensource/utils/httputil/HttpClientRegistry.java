@@ -0,0 +1,189 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Application wide holder of the OkHttpClient used by {@link HttpUtil}.
+ *
+ * There is a single shared client owning the connection pool and the dispatcher. The clients
+ * for each {@link HttpCallType} are derived from it with {@link OkHttpClient#newBuilder()}, so
+ * they only change timeouts and keep reusing the same pool, dispatcher and keep-alive connections.
+ */
+public class HttpClientRegistry {
+
+    private static HttpClientRegistry instance;
+
+    private final Config config;
+    private final OkHttpClient sharedClient;
+    private final Map<HttpCallType, OkHttpClient> clients;
+
+    private HttpClientRegistry(Config config) {
+        this.config = config;
+        this.clients = new EnumMap<>(HttpCallType.class);
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAliveMinutes(), TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true);
+
+        if (config.getCacheDirectory() != null && config.getCacheSize() > 0)
+            builder.cache(new Cache(config.getCacheDirectory(), config.getCacheSize()));
+
+        this.sharedClient = builder.build();
+    }
+
+    public static synchronized HttpClientRegistry getInstance() {
+        if (instance == null)
+            instance = new HttpClientRegistry(new Config());
+        return instance;
+    }
+
+    /**
+     * Replaces the shared client. Should be called once, before the first request, as calls
+     * already in flight keep using the previous client.
+     */
+    public static synchronized void configure(Config config) {
+        if (instance != null) {
+            instance.sharedClient.connectionPool().evictAll();
+        }
+        instance = new HttpClientRegistry(config);
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public OkHttpClient getSharedClient() {
+        return sharedClient;
+    }
+
+    public synchronized OkHttpClient getClient(HttpCallType type) {
+        OkHttpClient client = clients.get(type);
+
+        if (client == null) {
+            client = derive()
+                    .connectTimeout(config.getConnectTimeout(type), TimeUnit.SECONDS)
+                    .readTimeout(config.getReadTimeout(type), TimeUnit.SECONDS)
+                    .writeTimeout(config.getWriteTimeout(type), TimeUnit.SECONDS)
+                    .build();
+            clients.put(type, client);
+        }
+
+        return client;
+    }
+
+    /**
+     * Builder for a client sharing the pool and dispatcher of the shared one. Cheap to call,
+     * as nothing but the builder fields is allocated.
+     */
+    public OkHttpClient.Builder derive() {
+        return sharedClient.newBuilder();
+    }
+
+    public static class Config {
+
+        private int maxIdleConnections = 5;
+        private long keepAliveMinutes = 5;
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = 6;
+        private File cacheDirectory;
+        private long cacheSize;
+        private Map<HttpCallType, int[]> timeouts = new EnumMap<>(HttpCallType.class);
+        private Map<HttpCallType, RetryPolicy> retryPolicies = new EnumMap<>(HttpCallType.class);
+
+        public int getMaxIdleConnections() {
+            return maxIdleConnections;
+        }
+
+        public Config setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public long getKeepAliveMinutes() {
+            return keepAliveMinutes;
+        }
+
+        public Config setKeepAliveMinutes(long keepAliveMinutes) {
+            this.keepAliveMinutes = keepAliveMinutes;
+            return this;
+        }
+
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        public Config setMaxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        public int getMaxRequestsPerHost() {
+            return maxRequestsPerHost;
+        }
+
+        public Config setMaxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public File getCacheDirectory() {
+            return cacheDirectory;
+        }
+
+        public long getCacheSize() {
+            return cacheSize;
+        }
+
+        /**
+         * Enables the on-disk response cache. Entries are keyed by the full url, query included,
+         * and OkHttp revalidates them with the ETag / Last-Modified headers sent by the server.
+         */
+        public Config setCache(File cacheDirectory, long cacheSize) {
+            this.cacheDirectory = cacheDirectory;
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public Config setTimeouts(HttpCallType type, int connectSeconds, int readSeconds, int writeSeconds) {
+            this.timeouts.put(type, new int[] { connectSeconds, readSeconds, writeSeconds });
+            return this;
+        }
+
+        public int getConnectTimeout(HttpCallType type) {
+            return timeouts.containsKey(type) ? timeouts.get(type)[0] : type.connectTimeout();
+        }
+
+        public int getReadTimeout(HttpCallType type) {
+            return timeouts.containsKey(type) ? timeouts.get(type)[1] : type.readTimeout();
+        }
+
+        public int getWriteTimeout(HttpCallType type) {
+            return timeouts.containsKey(type) ? timeouts.get(type)[2] : type.writeTimeout();
+        }
+
+        public Config setRetryPolicy(HttpCallType type, RetryPolicy retryPolicy) {
+            this.retryPolicies.put(type, retryPolicy);
+            return this;
+        }
+
+        public RetryPolicy getRetryPolicy(HttpCallType type) {
+            return retryPolicies.containsKey(type) ? retryPolicies.get(type) : type.retryPolicy();
+        }
+    }
+}
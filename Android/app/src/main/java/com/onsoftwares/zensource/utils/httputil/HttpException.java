@@ -0,0 +1,64 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.io.IOException;
+
+/**
+ * Why a request failed: no response at all, a response other than 2xx, a body that could not be
+ * read, no result within the timeout, or a host the {@link CircuitBreaker} stopped sending to.
+ */
+public class HttpException extends IOException {
+
+    public static final int NO_RESPONSE = 0;
+
+    private final int code;
+    private final String body;
+    private final boolean timeout;
+
+    public HttpException(String message, int code, String body, Throwable cause, boolean timeout) {
+        super(message, cause);
+        this.code = code;
+        this.body = body;
+        this.timeout = timeout;
+    }
+
+    public static HttpException fromResponse(int code, String message, String body) {
+        return new HttpException("Unexpected response " + code + " " + message, code, body, null, false);
+    }
+
+    public static HttpException fromFailure(Throwable cause) {
+        if (cause instanceof HttpException)
+            return (HttpException) cause;
+        return new HttpException(cause.getMessage(), NO_RESPONSE, null, cause, false);
+    }
+
+    public static HttpException unreadable(String body, Throwable cause) {
+        return new HttpException("Unreadable response", NO_RESPONSE, body, cause, false);
+    }
+
+    public static HttpException timeout(long millis) {
+        return new HttpException("No result after " + millis + "ms", NO_RESPONSE, null, null, true);
+    }
+
+    public static HttpException circuitOpen(String host) {
+        return new HttpException("Not sent, " + host + " keeps failing", NO_RESPONSE, null, null, false);
+    }
+
+    /**
+     * HTTP status of the response, or {@link #NO_RESPONSE} when none was read.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean hasResponse() {
+        return code != NO_RESPONSE;
+    }
+
+    public boolean isTimeout() {
+        return timeout;
+    }
+}
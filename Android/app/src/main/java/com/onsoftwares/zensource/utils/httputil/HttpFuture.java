@@ -0,0 +1,450 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of a request that is not there yet. Either succeeds or fails once, and listeners are
+ * called on the delivery executor, the main thread unless told otherwise, with the result or
+ * the {@link HttpException} telling why it failed.
+ *
+ * Cancelling stops the request and no listener is called after that, even for a result that
+ * was already on its way to the main thread. A timeout stops the request too, but is delivered
+ * as a failure.
+ */
+public class HttpFuture<T> {
+
+    public static final Executor MAIN_THREAD = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            if (Looper.myLooper() == Looper.getMainLooper())
+                command.run();
+            else
+                handler.post(command);
+        }
+    };
+
+    /**
+     * Runs the listeners on the thread completing the future, an OkHttp thread for requests.
+     */
+    public static final Executor IMMEDIATE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Timeouts and retries, short tasks only.
+     */
+    static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    public interface Listener<T> {
+        void onSuccess(T result);
+
+        void onFailure(HttpException e);
+    }
+
+    public interface Composer<T, R> {
+        HttpFuture<R> compose(T result);
+    }
+
+    private final List<Listener<T>> listeners = new ArrayList<>();
+    private final List<Executor> listenerExecutors = new ArrayList<>();
+    private final List<Runnable> cancellers = new ArrayList<>();
+
+    private Executor executor = MAIN_THREAD;
+    private int state = PENDING;
+    private volatile boolean cancelled;
+    private volatile boolean detached;
+    private T result;
+    private HttpException error;
+
+    /**
+     * Executor the listeners added without one are called on.
+     */
+    public synchronized HttpFuture<T> deliverOn(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public HttpFuture<T> addListener(Listener<T> listener) {
+        Executor listenerExecutor;
+        synchronized (this) {
+            listenerExecutor = executor;
+        }
+        return addListener(listener, listenerExecutor);
+    }
+
+    public HttpFuture<T> addListener(Listener<T> listener, Executor listenerExecutor) {
+        synchronized (this) {
+            if (cancelled || detached)
+                return this;
+
+            if (state == PENDING) {
+                listeners.add(listener);
+                listenerExecutors.add(listenerExecutor);
+                return this;
+            }
+        }
+
+        dispatch(listener, listenerExecutor);
+        return this;
+    }
+
+    public boolean succeed(T value) {
+        synchronized (this) {
+            if (state != PENDING || cancelled)
+                return false;
+
+            state = SUCCEEDED;
+            result = value;
+        }
+
+        dispatchAll();
+        return true;
+    }
+
+    public boolean fail(HttpException e) {
+        synchronized (this) {
+            if (state != PENDING || cancelled)
+                return false;
+
+            state = FAILED;
+            error = e;
+        }
+
+        dispatchAll();
+        return true;
+    }
+
+    /**
+     * Stops the request and drops the listeners. Returns false if it was already cancelled.
+     */
+    public boolean cancel() {
+        List<Runnable> toRun;
+
+        synchronized (this) {
+            if (cancelled)
+                return false;
+
+            cancelled = true;
+            listeners.clear();
+            listenerExecutors.clear();
+            toRun = new ArrayList<>(cancellers);
+            cancellers.clear();
+        }
+
+        for (Runnable canceller : toRun)
+            canceller.run();
+        return true;
+    }
+
+    /**
+     * Drops the listeners but lets the request finish, unlike {@link #cancel()}.
+     */
+    public void detach() {
+        synchronized (this) {
+            detached = true;
+            listeners.clear();
+            listenerExecutors.clear();
+        }
+    }
+
+    /**
+     * Waits for the result, cancelling the request if it takes longer than the timeout. Only for
+     * threads meant to block, as the one of an IntentService, never the main thread nor a
+     * request callback.
+     */
+    public T get(long timeout, TimeUnit unit) throws HttpException {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        addCanceller(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(HttpException e) {
+                done.countDown();
+            }
+        }, IMMEDIATE);
+
+        try {
+            if (!done.await(timeout, unit)) {
+                cancel();
+                throw HttpException.timeout(unit.toMillis(timeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw HttpException.fromFailure(e);
+        }
+
+        synchronized (this) {
+            if (state == SUCCEEDED)
+                return result;
+            if (state == FAILED)
+                throw error;
+        }
+
+        throw HttpException.fromFailure(new IOException("Canceled"));
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * The failure of a future that timed out, null if it did not or was cancelled, so its
+     * cancellers can tell one from the other.
+     */
+    synchronized HttpException getTimeout() {
+        return !cancelled && state == FAILED ? error : null;
+    }
+
+    public synchronized boolean isDone() {
+        return state != PENDING || cancelled;
+    }
+
+    /**
+     * Called when the future is cancelled or times out, to stop whatever produces its result.
+     */
+    public HttpFuture<T> addCanceller(Runnable canceller) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancellers.add(canceller);
+                return this;
+            }
+        }
+
+        canceller.run();
+        return this;
+    }
+
+    /**
+     * Fails with a timeout {@link HttpException} and stops the request when there is no result
+     * in time.
+     */
+    public HttpFuture<T> withTimeout(final long timeout, final TimeUnit unit) {
+        final ScheduledFuture<?> task = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!fail(HttpException.timeout(unit.toMillis(timeout))))
+                    return;
+
+                List<Runnable> toRun;
+                synchronized (HttpFuture.this) {
+                    toRun = new ArrayList<>(cancellers);
+                    cancellers.clear();
+                }
+
+                for (Runnable canceller : toRun)
+                    canceller.run();
+            }
+        }, timeout, unit);
+
+        // A cancelled future is not held by the timer until then
+        addCanceller(new Runnable() {
+            @Override
+            public void run() {
+                task.cancel(false);
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * Starts the next request with the result of this one. Failing either one fails the returned
+     * future, and cancelling it, or its timeout, stops both. Chains are cancelled from their end.
+     */
+    public <R> HttpFuture<R> thenCompose(final Composer<? super T, R> composer) {
+        final HttpFuture<R> next = new HttpFuture<>();
+
+        synchronized (this) {
+            next.deliverOn(executor);
+        }
+
+        next.addCanceller(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        });
+
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (next.isCancelled())
+                    return;
+
+                final HttpFuture<R> inner;
+                try {
+                    inner = composer.compose(value);
+                } catch (RuntimeException e) {
+                    next.fail(HttpException.fromFailure(e));
+                    return;
+                }
+
+                next.addCanceller(new Runnable() {
+                    @Override
+                    public void run() {
+                        inner.cancel();
+                    }
+                });
+
+                inner.addListener(new Listener<R>() {
+                    @Override
+                    public void onSuccess(R result) {
+                        next.succeed(result);
+                    }
+
+                    @Override
+                    public void onFailure(HttpException e) {
+                        next.fail(e);
+                    }
+                }, IMMEDIATE);
+            }
+
+            @Override
+            public void onFailure(HttpException e) {
+                next.fail(e);
+            }
+        }, IMMEDIATE);
+
+        return next;
+    }
+
+    public static <T> HttpFuture<T> succeeded(T value) {
+        HttpFuture<T> future = new HttpFuture<>();
+        future.succeed(value);
+        return future;
+    }
+
+    @SafeVarargs
+    public static <T> HttpFuture<List<T>> allOf(HttpFuture<T>... futures) {
+        return allOf(Arrays.asList(futures));
+    }
+
+    /**
+     * Succeeds with all the results, in the order of the futures, once all of them succeed. The
+     * first failure fails it and cancels the others; cancelling it cancels all of them.
+     */
+    public static <T> HttpFuture<List<T>> allOf(final List<HttpFuture<T>> futures) {
+        final HttpFuture<List<T>> all = new HttpFuture<>();
+
+        if (futures.isEmpty()) {
+            all.succeed(Collections.<T>emptyList());
+            return all;
+        }
+
+        final Object[] results = new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+
+        all.addCanceller(new Runnable() {
+            @Override
+            public void run() {
+                for (HttpFuture<T> future : futures)
+                    future.cancel();
+            }
+        });
+
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+
+            futures.get(i).addListener(new Listener<T>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void onSuccess(T result) {
+                    results[index] = result;
+
+                    if (remaining.decrementAndGet() == 0) {
+                        List<T> list = new ArrayList<>(results.length);
+                        for (Object r : results)
+                            list.add((T) r);
+                        all.succeed(list);
+                    }
+                }
+
+                @Override
+                public void onFailure(HttpException e) {
+                    if (!all.fail(e))
+                        return;
+
+                    for (HttpFuture<T> future : futures)
+                        future.cancel();
+                }
+            }, IMMEDIATE);
+        }
+
+        return all;
+    }
+
+    private void dispatchAll() {
+        List<Listener<T>> toCall;
+        List<Executor> executors;
+
+        synchronized (this) {
+            toCall = new ArrayList<>(listeners);
+            executors = new ArrayList<>(listenerExecutors);
+            listeners.clear();
+            listenerExecutors.clear();
+        }
+
+        for (int i = 0; i < toCall.size(); i++)
+            dispatch(toCall.get(i), executors.get(i));
+    }
+
+    private void dispatch(final Listener<T> listener, Executor listenerExecutor) {
+        final int finalState;
+        final T finalResult;
+        final HttpException finalError;
+
+        synchronized (this) {
+            finalState = state;
+            finalResult = result;
+            finalError = error;
+        }
+
+        listenerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled || detached)
+                    return;
+
+                if (finalState == SUCCEEDED)
+                    listener.onSuccess(finalResult);
+                else
+                    listener.onFailure(finalError);
+            }
+        });
+    }
+}
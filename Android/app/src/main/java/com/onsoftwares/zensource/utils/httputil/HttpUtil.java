@@ -1,14 +1,29 @@
 package com.onsoftwares.zensource.utils.httputil;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.FormBody;
 import okhttp3.Headers;
@@ -19,25 +34,52 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.HashingSource;
+import okio.Okio;
 
 public class HttpUtil {
 
-    private OkHttpClient client;
-    private Callback successCallback;
-    private Callback failCallback;
+    public static final long DEFAULT_MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HttpCallType callType;
+    private volatile Callback successCallback;
+    private volatile Callback failCallback;
     private HttpUrl.Builder url;
     private Headers.Builder headers;
     private IHttpResponseConverter<?> converter;
+    private IHttpStreamConverter<?> streamConverter;
+    private volatile CallbackItem<?> itemCallback;
+    private long maxPayloadSize;
+    private volatile Call call;
+    private volatile Call hedgeCall;
+    private double hedgePercentile;
+    private volatile Priority priority;
+    private volatile RequestScheduler.Ticket ticket;
+    private volatile boolean canceled;
+    private volatile boolean silenced;
+    private RequestScope scope;
+    private boolean cancelOnClose = true;
+    private HttpFuture<Object> future;
+    private boolean coalesce = true;
+    private RetryPolicy retryPolicy;
+    private String flightKey;
     private JSONObject requestBody;
+    private CacheMode cacheMode;
+    private volatile ByteString revalidatedHash;
 
     private HttpUtil() {
-        this.client = new OkHttpClient();
+        this.callType = HttpCallType.DEFAULT;
+        this.cacheMode = CacheMode.NETWORK;
+        this.maxPayloadSize = DEFAULT_MAX_PAYLOAD_SIZE;
         this.headers = new Headers.Builder();
         this.requestBody = new JSONObject();
     }
 
     public OkHttpClient getClient() {
-        return client;
+        return HttpClientRegistry.getInstance().getClient(callType);
     }
 
     private Headers.Builder getHeaders() {
@@ -66,16 +108,104 @@ public class HttpUtil {
         this.converter = converter;
     }
 
+    private void setStreamConverter(IHttpStreamConverter<?> streamConverter) {
+        this.streamConverter = streamConverter;
+    }
+
+    private void setItemCallback(CallbackItem<?> itemCallback) {
+        this.itemCallback = itemCallback;
+    }
+
+    private void setMaxPayloadSize(long maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    private void setCallType(HttpCallType callType) {
+        this.callType = callType;
+    }
+
+    private void setCacheMode(CacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    private void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    private Priority getPriority() {
+        Priority current = priority;
+        return current != null ? current : callType.priority();
+    }
+
+    /**
+     * Changes the priority of the request, even while it waits for its slot or runs, e.g. for
+     * the image of a card scrolled into view.
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+
+        RequestScheduler.Ticket current = ticket;
+        if (current != null)
+            RequestScheduler.getInstance().reprioritize(current, priority);
+    }
+
+    private void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    private void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    private RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : HttpClientRegistry.getInstance().getConfig().getRetryPolicy(callType);
+    }
+
+    private void setScope(RequestScope scope, boolean cancelOnClose) {
+        this.scope = scope;
+        this.cancelOnClose = cancelOnClose;
+    }
+
+    /**
+     * Adds the request to its scope, returning false if it must not be sent as the scope was
+     * already closed.
+     */
+    private boolean enterScope() {
+        if (scope != null)
+            scope.add(this, cancelOnClose);
+        return !canceled;
+    }
+
     public void makeGet() {
+        if (!enterScope())
+            return;
+
         Request request = new Request.Builder()
             .url(this.url.build())
             .headers(this.headers.build())
             .build();
 
-        handleCall(request);
+        // Identical GETs in flight are not sent twice, this one waits for the result of the first
+        if (coalesce) {
+            String key = SingleFlight.keyOf(request, parserName() + " " + cacheMode);
+            if (SingleFlight.getInstance().join(key, this))
+                return;
+
+            synchronized (this) {
+                flightKey = key;
+            }
+        }
+
+        if (cacheMode == CacheMode.STALE_WHILE_REVALIDATE)
+            handleStaleWhileRevalidate(request);
+        else
+            handleCall(request);
     }
 
     public void makePost() {
+        if (!enterScope())
+            return;
+
         Request request = new Request.Builder()
                 .url(this.url.build())
                 .post(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), this.requestBody.toString()))
@@ -86,6 +216,9 @@ public class HttpUtil {
     }
 
     public void makePut() {
+        if (!enterScope())
+            return;
+
         Request request = new Request.Builder()
                 .url(this.url.build())
                 .put(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), this.requestBody.toString()))
@@ -94,59 +227,847 @@ public class HttpUtil {
         handleCall(request);
     }
 
+    /**
+     * Future-style variants of {@link #makeGet()}, {@link #makePost()} and {@link #makePut()}.
+     * The result is what the converter returns, the list of the stream converter, or the body as
+     * a String without converter. With {@link CacheMode#STALE_WHILE_REVALIDATE} the future gets
+     * the first response only, updates still go to the success callback.
+     */
+    public <T> HttpFuture<T> getAsync() {
+        HttpFuture<T> result = newFuture();
+        makeGet();
+        return result;
+    }
+
+    public <T> HttpFuture<T> postAsync() {
+        HttpFuture<T> result = newFuture();
+        makePost();
+        return result;
+    }
+
+    public <T> HttpFuture<T> putAsync() {
+        HttpFuture<T> result = newFuture();
+        makePut();
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> HttpFuture<T> newFuture() {
+        final HttpFuture<T> result = new HttpFuture<>();
+        this.future = (HttpFuture<Object>) result;
+
+        // A timeout is a failure for the fail callback too, only a cancel is silent. The callback
+        // is taken before cancelling, so a response arriving meanwhile is not delivered as well
+        result.addCanceller(new Runnable() {
+            @Override
+            public void run() {
+                HttpException timeout = result.getTimeout();
+                Callback onFail = failCallback;
+
+                cancel();
+
+                if (timeout != null && !silenced)
+                    deliverFail(onFail, timeout.getBody());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Synchronous GET returning the raw body, for binary content such as images. Must not be
+     * called on the main thread, as it also waits between retries.
+     */
+    public byte[] getBytes() throws IOException {
+        Request request = new Request.Builder()
+                .url(this.url.build())
+                .headers(this.headers.build())
+                .build();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return readBytes(request);
+            } catch (IOException e) {
+                RetryPolicy policy = getRetryPolicy();
+                if (canceled || !policy.shouldRetry(attempt, HttpException.fromFailure(e), true))
+                    throw e;
+
+                try {
+                    Thread.sleep(policy.delayAfter(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the body once the request has a slot, waiting for another one if it is preempted.
+     */
+    private byte[] readBytes(Request request) throws IOException {
+        while (true) {
+            String host = request.url().host();
+            if (!CircuitBreaker.getInstance().allowRequest(host))
+                throw HttpException.circuitOpen(host);
+
+            BlockingTicket slot = new BlockingTicket(getPriority());
+            ticket = slot;
+            RequestScheduler.getInstance().submit(slot);
+
+            try {
+                slot.await();
+                if (canceled)
+                    throw new IOException("Canceled");
+
+                return readBytes(request, slot);
+            } catch (IOException e) {
+                if (!slot.preempted || canceled)
+                    throw e;
+            } finally {
+                RequestScheduler.getInstance().finish(slot);
+            }
+        }
+    }
+
+    private byte[] readBytes(Request request, BlockingTicket slot) throws IOException {
+        String host = request.url().host();
+
+        Response response;
+        try {
+            Call current = newCall(request);
+            slot.call = current;
+            if (slot.preempted)
+                current.cancel();
+
+            response = current.execute();
+        } catch (IOException e) {
+            if (!canceled && !slot.preempted)
+                CircuitBreaker.getInstance().onFailure(host);
+            throw e;
+        }
+
+        try {
+            recordResponse(host, response.code());
+
+            if (!response.isSuccessful())
+                throw HttpException.fromResponse(response.code(), response.message(), null);
+
+            long contentLength = response.body().contentLength();
+            if (maxPayloadSize > 0 && contentLength > maxPayloadSize)
+                throw new LimitedInputStream.PayloadTooLargeException(contentLength, maxPayloadSize);
+
+            byte[] bytes = Okio.buffer(Okio.source(new LimitedInputStream(response.body().byteStream(), maxPayloadSize))).readByteArray();
+            slot.settled.set(true);
+            return bytes;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Cancels the request, if it is still running. Callbacks are not called after this.
+     */
+    public void cancel() {
+        // Cancelling the future calls this again through its canceller
+        if (canceled)
+            return;
+
+        canceled = true;
+        dropCallbacks();
+
+        Call current = call;
+        if (current != null)
+            current.cancel();
+
+        Call hedge = hedgeCall;
+        if (hedge != null)
+            hedge.cancel();
+
+        RequestScheduler.Ticket slot = ticket;
+        if (slot != null)
+            RequestScheduler.getInstance().finish(slot);
+
+        resend(land());
+
+        // Its listeners and timeout go too, only a timeout already delivered is left alone
+        HttpFuture<Object> result = future;
+        if (result != null && result.getTimeout() == null)
+            result.cancel();
+    }
+
+    /**
+     * Lets the request finish without calling its callbacks nor the listeners of its future.
+     * Requests coalesced with it still get its result.
+     */
+    public void detach() {
+        silenced = true;
+        dropCallbacks();
+
+        HttpFuture<Object> current = future;
+        if (current != null)
+            current.detach();
+    }
+
+    /**
+     * Callbacks are often anonymous classes holding a screen, which must not outlive it.
+     */
+    private void dropCallbacks() {
+        successCallback = null;
+        failCallback = null;
+        itemCallback = null;
+    }
+
+    private String parserName() {
+        if (streamConverter != null)
+            return streamConverter.getClass().getName();
+        if (converter != null)
+            return converter.getClass().getName();
+        return "";
+    }
+
+    /**
+     * Requests that were waiting for this one, if it led a flight. Called once a result is there.
+     */
+    private List<HttpUtil> land() {
+        String key;
+        synchronized (this) {
+            key = flightKey;
+            flightKey = null;
+        }
+
+        return key != null ? SingleFlight.getInstance().land(key, this) : Collections.<HttpUtil>emptyList();
+    }
+
+    /**
+     * Followers of a cancelled request are sent again, the first one leading a new flight.
+     */
+    private static void resend(List<HttpUtil> followers) {
+        for (HttpUtil follower : followers) {
+            if (!follower.canceled)
+                follower.makeGet();
+        }
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private Call newCall(Request request) {
+        Call newCall = getClient().newCall(request);
+        this.call = newCall;
+
+        if (canceled)
+            newCall.cancel();
+
+        return newCall;
+    }
+
     private void handleCall(Request request) {
-        client.newCall(request).enqueue(new okhttp3.Callback() {
+        handleCall(request, 1);
+    }
+
+    private void handleCall(final Request request, final int attempt) {
+        final String host = request.url().host();
+
+        // Fails right away while the host is down, instead of waiting for the timeouts
+        if (!CircuitBreaker.getInstance().allowRequest(host)) {
+            fail(HttpException.circuitOpen(host));
+            return;
+        }
+
+        // Sent once the scheduler gives it a slot of its priority
+        CallTicket next = new CallTicket(getPriority(), request, attempt);
+        ticket = next;
+        RequestScheduler.getInstance().submit(next);
+    }
+
+    private void send(Request request, int attempt, CallTicket slot) {
+        Race race = new Race(newCall(request));
+        slot.race = race;
+        race.primary.enqueue(raceCallback(request, attempt, race, slot, false));
+
+        if (hedgePercentile > 0 && "GET".equals(request.method())) {
+            HedgeBudget.getInstance().onRequest();
+            scheduleHedge(request, attempt, race, slot);
+        }
+    }
+
+    /**
+     * Callback of one of the calls racing for a request. The first one to get response headers
+     * is the one delivered, the other is cancelled. A failure is only handled once no call is
+     * left running.
+     */
+    private okhttp3.Callback raceCallback(final Request request, final int attempt, final Race race, final RequestScheduler.Ticket slot, final boolean hedge) {
+        final String host = request.url().host();
+        final long startedAt = SystemClock.elapsedRealtime();
+
+        return new okhttp3.Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e("WHAT", e.getStackTrace().toString());
-                e.printStackTrace();
+                release(slot);
+
+                // A first call cancelled for the hedge took at least this long, leaving it out
+                // would only keep the fast responses and set the hedges off ever later
+                if (!hedge && race.answered.get() && !race.preempted)
+                    LatencyTracker.getInstance().record(endpointOf(request), SystemClock.elapsedRealtime() - startedAt);
+
+                // A preempted request is sent again by the scheduler
+                if (race.preempted || race.running.decrementAndGet() > 0)
+                    return;
+
+                HttpException failure = HttpException.fromFailure(e);
+
+                if (!canceled) {
+                    CircuitBreaker.getInstance().onFailure(host);
+
+                    if (retry(request, attempt, failure))
+                        return;
+
+                    Log.e("HttpUtil", "Request failed " + call.request().url(), e);
+                }
+
+                fail(failure);
             }
 
             @Override
             public void onResponse(Call call, final Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String responseStr = response.body().string();
-                    try {
-                        if (successCallback != null && successCallback instanceof CallbackString)
-                            ((CallbackString) successCallback).callback(responseStr);
-                        else if (successCallback != null && successCallback instanceof CallbackJsonObject) {
-                            JSONObject json = new JSONObject(responseStr);
-                            ((CallbackJsonObject) successCallback).callback(json);
-                        }
-                        else if (successCallback != null && successCallback instanceof CallbackJsonArray) {
-                            JSONArray json = new JSONArray(responseStr);
-                            ((CallbackJsonArray) successCallback).callback(json);
-                        }
-                        else if (successCallback != null && successCallback instanceof CallbackConverted<?> && converter != null) {
-                            ((CallbackConverted) successCallback).callback(converter.convertHttpResponse(responseStr));
-                        } else if (successCallback != null && successCallback instanceof CallbackVoid) {
-                            ((CallbackVoid) successCallback).callback();
-                        }
-                    } catch (JSONException e) {
+                LatencyTracker.getInstance().record(endpointOf(request), SystemClock.elapsedRealtime() - startedAt);
+                recordResponse(host, response.code());
 
-                        e.printStackTrace();
+                if (!race.answer(hedge)) {
+                    response.close();
 
-                        if (failCallback != null && failCallback instanceof CallbackString)
-                            ((CallbackString) failCallback).callback(responseStr);
-                        else if (failCallback != null && failCallback instanceof CallbackJsonObject) {
-                            ((CallbackJsonObject) failCallback).callback(null);
-                        }
-                        else if (failCallback != null && failCallback instanceof CallbackJsonArray) {
-                            ((CallbackJsonArray) failCallback).callback(null);
-                        }
-                        else if (failCallback != null && failCallback instanceof CallbackConverted<?> && converter != null) {
-                            ((CallbackConverted) failCallback).callback(null);
-                        } else if (failCallback != null && failCallback instanceof CallbackVoid) {
-                            ((CallbackVoid) failCallback).callback();
+                    // A preempted hedge lost to no other call, it fails as if cancelled before
+                    // its headers
+                    if (hedge && race.hedgePreempted)
+                        onFailure(call, new IOException("Canceled"));
+                    else
+                        release(slot);
+                    return;
+                }
+
+                Call other = hedge ? race.primary : race.hedge;
+                if (other != null)
+                    other.cancel();
+
+                if (hedge)
+                    HedgeBudget.getInstance().onHedgeWon();
+
+                // The slot is freed as soon as the body is read, the callbacks may start requests
+                // of the same priority and wait for them
+                try {
+                    if (response.isSuccessful()) {
+                        ByteString cachedHash = revalidatedHash;
+
+                        if (cachedHash != null)
+                            deliverRevalidated(response, cachedHash, slot);
+                        else if (streamConverter != null) {
+                            deliverStream(response.body().byteStream(), response.body().contentLength(), slot);
+                            response.close();
+                        } else {
+                            String body = response.body().string();
+                            release(slot);
+                            deliverResponse(body);
                         }
+                    } else {
+                        String body = response.body().string();
+                        release(slot);
+
+                        HttpException failure = HttpException.fromResponse(response.code(), response.message(), body);
+
+                        if (retry(request, attempt, failure))
+                            return;
+
+                        Log.e("HttpUtil", "Unexpected response " + response.code() + " for " + call.request().url());
+                        fail(failure);
                     }
+                } finally {
+                    release(slot);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends a second copy of the GET if it has no response headers by the configured percentile
+     * of the recent latency of its endpoint, the hedge budget allows it and a slot is free. The
+     * hedge holds a slot of its own, so it never makes the scheduler send more than it allows.
+     */
+    private void scheduleHedge(final Request request, final int attempt, final Race race, final CallTicket slot) {
+        long delay = LatencyTracker.getInstance().percentile(endpointOf(request), hedgePercentile);
+        if (delay < 0)
+            return;
+
+        HttpFuture.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (canceled || race.answered.get())
+                    return;
+
+                HedgeTicket hedgeSlot = new HedgeTicket(slot.getPriority(), race);
+                if (!RequestScheduler.getInstance().tryAcquire(hedgeSlot))
+                    return;
+
+                // Only while the first call is still running, a failed one is retried instead
+                if (!HedgeBudget.getInstance().tryHedge() || !race.running.compareAndSet(1, 2)) {
+                    release(hedgeSlot);
+                    return;
+                }
+
+                Call hedge = getClient().newCall(request);
+                race.hedge = hedge;
+                hedgeCall = hedge;
+
+                if (canceled || race.answered.get() || race.hedgePreempted)
+                    hedge.cancel();
+
+                hedge.enqueue(raceCallback(request, attempt, race, hedgeSlot, true));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void release(RequestScheduler.Ticket slot) {
+        if (slot != null)
+            RequestScheduler.getInstance().finish(slot);
+    }
+
+    private static String endpointOf(Request request) {
+        return request.url().host() + request.url().encodedPath();
+    }
+
+    private static class Race {
+        final Call primary;
+        final AtomicBoolean answered = new AtomicBoolean();
+        final AtomicInteger running = new AtomicInteger(1);
+        volatile Call hedge;
+        volatile boolean preempted;
+        volatile boolean hedgePreempted;
+
+        Race(Call primary) {
+            this.primary = primary;
+        }
+
+        /**
+         * Whether the call is the first with response headers, the one delivered.
+         */
+        synchronized boolean answer(boolean isHedge) {
+            if (isHedge && hedgePreempted)
+                return false;
+            return answered.compareAndSet(false, true);
+        }
+
+        /**
+         * Stops the hedge alone, unless it already has the response.
+         */
+        boolean preemptHedge() {
+            synchronized (this) {
+                if (answered.get() || hedgePreempted)
+                    return false;
+                hedgePreempted = true;
+            }
+
+            Call current = hedge;
+            if (current != null)
+                current.cancel();
+            return true;
+        }
+
+        /**
+         * Stops the calls unless one already has a response.
+         */
+        boolean preempt() {
+            if (!answered.compareAndSet(false, true))
+                return false;
+
+            preempted = true;
+            primary.cancel();
+
+            Call current = hedge;
+            if (current != null)
+                current.cancel();
+            return true;
+        }
+    }
+
+    /**
+     * Slot of an asynchronous call. Only GETs are preempted, others may have reached the server.
+     */
+    private class CallTicket extends RequestScheduler.Ticket {
+        final Request request;
+        final int attempt;
+        volatile Race race;
+
+        CallTicket(Priority priority, Request request, int attempt) {
+            super(priority);
+            this.request = request;
+            this.attempt = attempt;
+        }
+
+        @Override
+        protected void start() {
+            if (canceled)
+                RequestScheduler.getInstance().finish(this);
+            else
+                send(request, attempt, this);
+        }
+
+        @Override
+        protected boolean preempt() {
+            Race current = race;
+            return current != null && "GET".equals(request.method()) && current.preempt();
+        }
+
+        @Override
+        protected void onPreempted() {
+            if (!canceled)
+                handleCall(request, attempt);
+        }
+    }
+
+    /**
+     * Slot of a hedge, only taken when free. Preempting it leaves the first call running.
+     */
+    private static class HedgeTicket extends RequestScheduler.Ticket {
+        final Race race;
+
+        HedgeTicket(Priority priority, Race race) {
+            super(priority);
+            this.race = race;
+        }
+
+        @Override
+        protected void start() {
+            // Never queued, see RequestScheduler#tryAcquire
+        }
+
+        @Override
+        protected boolean preempt() {
+            return race.preemptHedge();
+        }
+    }
+
+    /**
+     * Slot of a {@link #getBytes()} call, which waits for it on its own thread.
+     */
+    private static class BlockingTicket extends RequestScheduler.Ticket {
+        private final CountDownLatch admitted = new CountDownLatch(1);
+        final AtomicBoolean settled = new AtomicBoolean();
+        volatile Call call;
+        volatile boolean preempted;
+
+        BlockingTicket(Priority priority) {
+            super(priority);
+        }
+
+        void await() throws InterruptedIOException {
+            try {
+                admitted.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a slot");
+            }
+        }
+
+        @Override
+        protected void start() {
+            admitted.countDown();
+        }
+
+        @Override
+        protected void onDropped() {
+            admitted.countDown();
+        }
+
+        @Override
+        protected boolean preempt() {
+            if (settled.get())
+                return false;
+
+            preempted = true;
+            Call current = call;
+            if (current != null)
+                current.cancel();
+            return true;
+        }
+    }
+
+    /**
+     * Sends the request again after a backoff, when its policy allows it. Returns false if the
+     * failure is final. Only GETs are sent again once they may have reached the server.
+     */
+    private boolean retry(final Request request, final int attempt, HttpException e) {
+        RetryPolicy policy = getRetryPolicy();
+        if (canceled || !policy.shouldRetry(attempt, e, "GET".equals(request.method())))
+            return false;
+
+        long delay = policy.delayAfter(attempt);
+        Log.w("HttpUtil", "Attempt " + attempt + " failed for " + request.url() + ", retrying in " + delay + "ms");
+
+        HttpFuture.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!canceled)
+                    handleCall(request, attempt + 1);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+
+        return true;
+    }
+
+    private static void recordResponse(String host, int code) {
+        if (code >= 500)
+            CircuitBreaker.getInstance().onFailure(host);
+        else
+            CircuitBreaker.getInstance().onSuccess(host);
+    }
+
+    /**
+     * Delivers the cached response right away, if there is one, and revalidates it against the
+     * server in background. The callback is only called a second time when the content changed.
+     */
+    private void handleStaleWhileRevalidate(final Request request) {
+        Request cacheRequest = request.newBuilder()
+                .cacheControl(CacheControl.FORCE_CACHE)
+                .build();
+
+        // Only reads the cache, so it needs no slot and is served even while the host is down.
+        // What goes to the network is sent as any other request
+        newCall(cacheRequest).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                handleCall(request);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                // OkHttp answers 504 when the response is not on the cache
+                if (!response.isSuccessful()) {
+                    response.close();
+                    handleCall(request);
+                    return;
+                }
+
+                if (streamConverter != null) {
+                    HashingSource hashingSource = HashingSource.md5(response.body().source());
+                    BufferedSource cachedSource = Okio.buffer(hashingSource);
+                    deliverStream(cachedSource.inputStream(), response.body().contentLength());
+
+                    // The hash must cover the whole body, even what the converter did not read
+                    while (!cachedSource.exhausted())
+                        cachedSource.skip(cachedSource.buffer().size());
+                    response.close();
+
+                    revalidate(request, hashingSource.hash());
                 } else {
-                    Log.e("WHAT", response.message());
+                    byte[] cachedBytes = response.body().bytes();
+                    deliverResponse(new String(cachedBytes, UTF_8));
+                    revalidate(request, ByteString.of(cachedBytes).md5());
                 }
             }
         });
     }
 
+    /**
+     * Sends the request to the server, bypassing the cache, through the breaker, retries and
+     * scheduler of any request. Its failures are not delivered, the stale response stays.
+     */
+    private void revalidate(Request request, ByteString cachedHash) {
+        Request validationRequest = request.newBuilder()
+                .cacheControl(new CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build())
+                .build();
+
+        revalidatedHash = cachedHash;
+        handleCall(validationRequest);
+    }
+
+    /**
+     * Delivers the response of a revalidation only when it differs from the stale one.
+     */
+    private void deliverRevalidated(Response response, ByteString cachedHash, RequestScheduler.Ticket slot) throws IOException {
+        Response networkResponse = response.networkResponse();
+
+        if (networkResponse != null && networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            response.close();
+            return;
+        }
+
+        // Servers without validators send the whole page again, so compare the content
+        byte[] bytes = response.body().bytes();
+        release(slot);
+
+        if (ByteString.of(bytes).md5().equals(cachedHash))
+            return;
+
+        if (streamConverter != null)
+            deliverStream(new ByteArrayInputStream(bytes), bytes.length);
+        else
+            deliverResponse(new String(bytes, UTF_8));
+    }
+
+    private void deliverResponse(String responseStr) {
+        // Followers parse the same body for their own callbacks
+        for (HttpUtil follower : land())
+            follower.deliverResponse(responseStr);
+
+        if (canceled || silenced)
+            return;
+
+        try {
+            Callback onSuccess = successCallback;
+
+            // Converted once for both the future and the callback
+            Object converted = responseStr;
+            if (converter != null && (future != null || onSuccess instanceof CallbackConverted<?>))
+                converted = converter.convertHttpResponse(responseStr);
+
+            if (future != null)
+                future.succeed(converted);
+
+            if (onSuccess instanceof CallbackString)
+                ((CallbackString) onSuccess).callback(responseStr);
+            else if (onSuccess instanceof CallbackJsonObject) {
+                JSONObject json = new JSONObject(responseStr);
+                ((CallbackJsonObject) onSuccess).callback(json);
+            }
+            else if (onSuccess instanceof CallbackJsonArray) {
+                JSONArray json = new JSONArray(responseStr);
+                ((CallbackJsonArray) onSuccess).callback(json);
+            }
+            else if (onSuccess instanceof CallbackConverted<?> && converter != null) {
+                ((CallbackConverted) onSuccess).callback(converted);
+            } else if (onSuccess instanceof CallbackVoid) {
+                ((CallbackVoid) onSuccess).callback();
+            }
+        } catch (JSONException e) {
+            Log.e("HttpUtil", "Unreadable response", e);
+            fail(HttpException.unreadable(responseStr, e));
+        }
+    }
+
+    private void deliverStream(InputStream in, long contentLength) {
+        deliverStream(in, contentLength, null);
+    }
+
+    /**
+     * @param slot freed once the body is read, before the callbacks get the list
+     */
+    @SuppressWarnings("unchecked")
+    private void deliverStream(InputStream in, long contentLength, RequestScheduler.Ticket slot) {
+        List<HttpUtil> followers = land();
+
+        if (canceled) {
+            resend(followers);
+            return;
+        }
+
+        try {
+            if (maxPayloadSize > 0 && contentLength > maxPayloadSize)
+                throw new LimitedInputStream.PayloadTooLargeException(contentLength, maxPayloadSize);
+
+            List<?> list = streamConverter.convertHttpResponse(new LimitedInputStream(in, maxPayloadSize), new IHttpStreamConverter.OnItemConverted() {
+                @Override
+                public void onItemConverted(Object item) {
+                    CallbackItem onItem = itemCallback;
+                    if (onItem != null)
+                        onItem.callback(item);
+                }
+            });
+
+            release(slot);
+            deliverList(list, false);
+
+            for (HttpUtil follower : followers)
+                follower.deliverList(list, true);
+
+        } catch (IOException | IllegalStateException e) {
+            if (canceled) {
+                resend(followers);
+                return;
+            }
+
+            release(slot);
+            Log.e("HttpUtil", "Could not read the response", e);
+            HttpException failure = HttpException.fromFailure(e);
+
+            fail(failure);
+            for (HttpUtil follower : followers)
+                follower.fail(failure);
+        }
+    }
+
+    /**
+     * Delivers a list parsed from a stream, the item callback getting each item first when they
+     * were parsed by another request.
+     */
+    @SuppressWarnings("unchecked")
+    private void deliverList(List<?> list, boolean replayItems) {
+        if (canceled || silenced)
+            return;
+
+        CallbackItem onItem = itemCallback;
+        if (replayItems && onItem != null) {
+            for (Object item : list)
+                onItem.callback(item);
+        }
+
+        if (future != null)
+            future.succeed(list);
+
+        Callback onSuccess = successCallback;
+        if (onSuccess instanceof CallbackConverted<?>)
+            ((CallbackConverted) onSuccess).callback(list);
+        else if (onSuccess instanceof CallbackVoid)
+            ((CallbackVoid) onSuccess).callback();
+    }
+
+    /**
+     * Every failure ends here, so the future and the fail callback always hear of it, unless the
+     * request was cancelled.
+     */
+    private void fail(HttpException e) {
+        List<HttpUtil> followers = land();
+
+        if (canceled) {
+            resend(followers);
+            return;
+        }
+
+        for (HttpUtil follower : followers)
+            follower.fail(e);
+
+        if (silenced)
+            return;
+
+        // The stale response was delivered already
+        if (revalidatedHash != null) {
+            Log.w("HttpUtil", "Could not revalidate the cached response", e);
+            return;
+        }
+
+        if (future != null)
+            future.fail(e);
+
+        deliverFail(failCallback, e.getBody());
+    }
+
+    private void deliverFail(Callback onFail, String responseStr) {
+
+        if (onFail instanceof CallbackString)
+            ((CallbackString) onFail).callback(responseStr);
+        else if (onFail instanceof CallbackJsonObject) {
+            ((CallbackJsonObject) onFail).callback(null);
+        }
+        else if (onFail instanceof CallbackJsonArray) {
+            ((CallbackJsonArray) onFail).callback(null);
+        }
+        else if (onFail instanceof CallbackConverted<?>) {
+            ((CallbackConverted) onFail).callback(null);
+        } else if (onFail instanceof CallbackVoid) {
+            ((CallbackVoid) onFail).callback();
+        }
+    }
+
     public static Builder Builder() {
         return new Builder();
     }
@@ -170,6 +1091,87 @@ public class HttpUtil {
             return this;
         }
 
+        /**
+         * Parses the body straight from the response stream. The success callback receives the
+         * whole list at the end, while {@link #onItem(CallbackItem)} gets each item as it is
+         * parsed, on the network thread and while the request holds its slot, so it must not
+         * block.
+         */
+        public Builder withStreamConverter(IHttpStreamConverter converter) {
+            this.httpUtil.setStreamConverter(converter);
+            return this;
+        }
+
+        /**
+         * When the stream breaks after some items, the fail callback follows them. The items are
+         * not taken back, it is up to the caller to drop them if the request is made again.
+         */
+        public Builder onItem(CallbackItem c) {
+            this.httpUtil.setItemCallback(c);
+            return this;
+        }
+
+        public Builder withMaxPayloadSize(long maxPayloadSize) {
+            this.httpUtil.setMaxPayloadSize(maxPayloadSize);
+            return this;
+        }
+
+        public Builder withCallType(HttpCallType callType) {
+            this.httpUtil.setCallType(callType);
+            return this;
+        }
+
+        /**
+         * Only used by GET requests. The success callback may be called twice on
+         * {@link CacheMode#STALE_WHILE_REVALIDATE}, so it should replace the data it shows.
+         */
+        public Builder withCacheMode(CacheMode cacheMode) {
+            this.httpUtil.setCacheMode(cacheMode);
+            return this;
+        }
+
+        /**
+         * Sends a second copy of a slow GET, see {@link #withHedging(double)}, at the p95.
+         */
+        public Builder withHedging() {
+            return withHedging(HedgeBudget.DEFAULT_PERCENTILE);
+        }
+
+        /**
+         * When a GET has no response headers after the given percentile of the recent latency of
+         * its endpoint, a second copy is sent and the first to answer is used, the other being
+         * cancelled. Hedges are limited by the {@link HedgeBudget}.
+         */
+        public Builder withHedging(double percentile) {
+            this.httpUtil.setHedgePercentile(percentile);
+            return this;
+        }
+
+        /**
+         * Overrides the priority of the call type, see {@link RequestScheduler}.
+         */
+        public Builder withPriority(Priority priority) {
+            this.httpUtil.setPriority(priority);
+            return this;
+        }
+
+        /**
+         * Overrides the retry policy of the call type.
+         */
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+            this.httpUtil.setRetryPolicy(retryPolicy);
+            return this;
+        }
+
+        /**
+         * GETs are coalesced by default: while an identical one is in flight, this one gets its
+         * result instead of going to the network.
+         */
+        public Builder withCoalescing(boolean coalesce) {
+            this.httpUtil.setCoalesce(coalesce);
+            return this;
+        }
+
         public Builder addQueryParameter(String name, String value) {
             this.httpUtil.getUrl().addQueryParameter(name, value);
             return this;
@@ -199,6 +1201,22 @@ public class HttpUtil {
             return this;
         }
 
+        /**
+         * Cancels the request when the scope is closed.
+         */
+        public Builder inScope(RequestScope scope) {
+            return inScope(scope, true);
+        }
+
+        /**
+         * With cancelOnClose false the request still completes once the scope is closed, only its
+         * callbacks are dropped. For requests that change something on the server.
+         */
+        public Builder inScope(RequestScope scope, boolean cancelOnClose) {
+            this.httpUtil.setScope(scope, cancelOnClose);
+            return this;
+        }
+
         public HttpUtil build() {
             return httpUtil;
         }
@@ -215,6 +1233,23 @@ public class HttpUtil {
             this.httpUtil.makePut();
         }
 
+        public <T> HttpFuture<T> getAsync() {
+            return this.httpUtil.getAsync();
+        }
+
+        public <T> HttpFuture<T> postAsync() {
+            return this.httpUtil.postAsync();
+        }
+
+        public <T> HttpFuture<T> putAsync() {
+            return this.httpUtil.putAsync();
+        }
+
+    }
+
+    public enum CacheMode {
+        NETWORK,
+        STALE_WHILE_REVALIDATE
     }
 
     public interface Callback {
@@ -239,4 +1274,8 @@ public class HttpUtil {
     public interface CallbackVoid extends Callback {
         void callback();
     }
+
+    public interface CallbackItem<T> extends Callback {
+        void callback(T item);
+    }
 }
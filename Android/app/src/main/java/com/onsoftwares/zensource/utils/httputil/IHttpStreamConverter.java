@@ -0,0 +1,17 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Converter reading straight from the response stream, without holding the body as a String.
+ * Items are handed to the listener as soon as they are parsed.
+ */
+public interface IHttpStreamConverter<T> {
+    List<T> convertHttpResponse(InputStream response, OnItemConverted<T> listener) throws IOException;
+
+    interface OnItemConverted<T> {
+        void onItemConverted(T item);
+    }
+}
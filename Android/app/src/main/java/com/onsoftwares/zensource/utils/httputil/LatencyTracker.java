@@ -0,0 +1,69 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recent time to response headers, by host and path, to tell how long a request usually takes.
+ * Only the last {@link #SAMPLES} responses of each endpoint are kept, so it follows the network
+ * in use.
+ */
+public class LatencyTracker {
+
+    public static final int SAMPLES = 128;
+    public static final int MIN_SAMPLES = 16;
+
+    private static LatencyTracker instance;
+
+    private final Map<String, Window> windows = new HashMap<>();
+
+    private static class Window {
+        final long[] samples = new long[SAMPLES];
+        int count;
+        int next;
+    }
+
+    public static synchronized LatencyTracker getInstance() {
+        if (instance == null)
+            instance = new LatencyTracker();
+        return instance;
+    }
+
+    public synchronized void record(String endpoint, long millis) {
+        Window window = windows.get(endpoint);
+        if (window == null) {
+            window = new Window();
+            windows.put(endpoint, window);
+        }
+
+        window.samples[window.next] = millis;
+        window.next = (window.next + 1) % SAMPLES;
+        window.count = Math.min(window.count + 1, SAMPLES);
+    }
+
+    /**
+     * Latency the given share of the recent requests, 0.95 for the p95, stayed under. -1 while
+     * there are fewer than {@link #MIN_SAMPLES} samples.
+     */
+    public long percentile(String endpoint, double percentile) {
+        long[] sorted;
+
+        synchronized (this) {
+            Window window = windows.get(endpoint);
+            if (window == null || window.count < MIN_SAMPLES)
+                return -1;
+
+            sorted = Arrays.copyOf(window.samples, window.count);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencyTracker[endpoints=" + windows.size() + "]";
+    }
+}
@@ -0,0 +1,57 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails with {@link PayloadTooLargeException} once more than the allowed bytes are read.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long read;
+
+    public LimitedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) count(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) throws PayloadTooLargeException {
+        read += n;
+        if (maxBytes > 0 && read > maxBytes)
+            throw new PayloadTooLargeException(read, maxBytes);
+    }
+
+    public static class PayloadTooLargeException extends IOException {
+        public PayloadTooLargeException(long size, long maxBytes) {
+            super("Response payload of " + size + " bytes is over the limit of " + maxBytes + " bytes");
+        }
+    }
+}
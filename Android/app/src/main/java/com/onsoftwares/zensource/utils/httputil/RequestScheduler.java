@@ -0,0 +1,336 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which requests go to the network, in front of the OkHttp dispatcher which sends them
+ * first come first served. Requests wait for a slot in order of priority, each class up to its
+ * own number of slots, so prefetches and background work never hold back what the user looks at.
+ *
+ * When a visible request or a user action has to wait, a running prefetch or background GET is
+ * stopped to free its slot and sent again later. Priorities can change while a request waits or
+ * runs, e.g. a prefetched card scrolled into view.
+ */
+public class RequestScheduler {
+
+    public enum Priority {
+        /** Content on screen */
+        VISIBLE(6, false),
+        /** Something the user just did, as rating a quote */
+        USER_ACTION(2, false),
+        /** Content about to be scrolled into view */
+        PREFETCH(2, true),
+        /** Daily quote, cache warming */
+        BACKGROUND(1, true);
+
+        private final int maxRunning;
+        private final boolean preemptible;
+
+        Priority(int maxRunning, boolean preemptible) {
+            this.maxRunning = maxRunning;
+            this.preemptible = preemptible;
+        }
+
+        public int maxRunning() {
+            return maxRunning;
+        }
+
+        public boolean isPreemptible() {
+            return preemptible;
+        }
+    }
+
+    /**
+     * A request waiting for a slot or holding one, until {@link #finish} is called with it.
+     */
+    public static abstract class Ticket {
+
+        private Priority priority;
+        private long submittedAt;
+        private boolean queued;
+        private boolean running;
+        private boolean done;
+
+        protected Ticket(Priority priority) {
+            this.priority = priority;
+        }
+
+        /**
+         * Sends the request, once it has a slot. Called out of the lock of the scheduler.
+         */
+        protected abstract void start();
+
+        /**
+         * Stops the request to give its slot to a more urgent one, returning false when it is too
+         * late for that. Called for preemptible priorities only.
+         */
+        protected boolean preempt() {
+            return false;
+        }
+
+        /**
+         * Called once the slot of a preempted request was freed, to submit it again.
+         */
+        protected void onPreempted() {
+        }
+
+        /**
+         * Called when the request is finished before it was started, i.e. cancelled.
+         */
+        protected void onDropped() {
+        }
+
+        public synchronized Priority getPriority() {
+            return priority;
+        }
+    }
+
+    private static RequestScheduler instance;
+
+    private final int maxRunning;
+    private final Map<Priority, ArrayDeque<Ticket>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+    private final Set<Ticket> runningTickets = new LinkedHashSet<>();
+
+    private final Map<Priority, Long> started = new EnumMap<>(Priority.class);
+    private final Map<Priority, Long> waitedMillis = new EnumMap<>(Priority.class);
+    private long deferred;
+    private long preempted;
+
+    RequestScheduler(int maxRunning) {
+        this.maxRunning = maxRunning;
+
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<Ticket>());
+            running.put(priority, 0);
+            started.put(priority, 0L);
+            waitedMillis.put(priority, 0L);
+        }
+    }
+
+    /**
+     * As many slots as the dispatcher sends requests to a host at once, more would only wait
+     * there in FIFO order again.
+     */
+    public static synchronized RequestScheduler getInstance() {
+        if (instance == null)
+            instance = new RequestScheduler(HttpClientRegistry.getInstance().getConfig().getMaxRequestsPerHost());
+        return instance;
+    }
+
+    public void submit(Ticket ticket) {
+        synchronized (this) {
+            if (ticket.done || ticket.queued || ticket.running)
+                return;
+
+            ticket.queued = true;
+            ticket.submittedAt = SystemClock.elapsedRealtime();
+            queues.get(ticket.getPriority()).add(ticket);
+        }
+
+        schedule();
+    }
+
+    /**
+     * Gives the request a slot right away if one is free and no other request waits for it,
+     * without calling {@link Ticket#start()}. Returns false instead of queueing it, for requests
+     * which are only worth sending now, as hedges.
+     */
+    public boolean tryAcquire(Ticket ticket) {
+        synchronized (this) {
+            Priority priority = ticket.getPriority();
+
+            if (ticket.done || ticket.queued || ticket.running || firstWaiting() != null
+                    || runningTickets.size() >= maxRunning || running.get(priority) >= priority.maxRunning())
+                return false;
+
+            ticket.running = true;
+            runningTickets.add(ticket);
+            running.put(priority, running.get(priority) + 1);
+            started.put(priority, started.get(priority) + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Frees the slot of the request, or takes it out of the queue if it did not start. Does
+     * nothing when called again.
+     */
+    public void finish(Ticket ticket) {
+        boolean dropped = false;
+
+        synchronized (this) {
+            if (ticket.done)
+                return;
+
+            ticket.done = true;
+
+            if (ticket.queued) {
+                queues.get(ticket.getPriority()).remove(ticket);
+                ticket.queued = false;
+                dropped = true;
+            } else if (ticket.running) {
+                release(ticket);
+            }
+        }
+
+        if (dropped)
+            ticket.onDropped();
+
+        schedule();
+    }
+
+    /**
+     * Moves a waiting request to the queue of its new priority, or counts a running one in its
+     * new class.
+     */
+    public void reprioritize(Ticket ticket, Priority priority) {
+        synchronized (this) {
+            Priority old = ticket.getPriority();
+
+            if (old == priority)
+                return;
+
+            synchronized (ticket) {
+                ticket.priority = priority;
+            }
+
+            if (ticket.queued) {
+                queues.get(old).remove(ticket);
+                queues.get(priority).add(ticket);
+            } else if (ticket.running) {
+                running.put(old, running.get(old) - 1);
+                running.put(priority, running.get(priority) + 1);
+            }
+        }
+
+        schedule();
+    }
+
+    private void schedule() {
+        List<Ticket> toStart = new ArrayList<>();
+        Ticket victim = null;
+
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+
+            for (Priority priority : Priority.values()) {
+                ArrayDeque<Ticket> queue = queues.get(priority);
+
+                while (!queue.isEmpty() && runningTickets.size() < maxRunning && running.get(priority) < priority.maxRunning()) {
+                    Ticket ticket = queue.poll();
+                    ticket.queued = false;
+                    ticket.running = true;
+                    runningTickets.add(ticket);
+                    running.put(priority, running.get(priority) + 1);
+
+                    started.put(priority, started.get(priority) + 1);
+                    waitedMillis.put(priority, waitedMillis.get(priority) + now - ticket.submittedAt);
+
+                    if (now > ticket.submittedAt)
+                        deferred++;
+
+                    toStart.add(ticket);
+                }
+            }
+
+            Ticket waiting = firstWaiting();
+            if (waiting != null && !waiting.getPriority().isPreemptible() && runningTickets.size() >= maxRunning)
+                victim = victimFor(waiting.getPriority());
+        }
+
+        for (Ticket ticket : toStart)
+            ticket.start();
+
+        if (victim == null || !victim.preempt())
+            return;
+
+        synchronized (this) {
+            if (victim.done || !victim.running)
+                return;
+
+            victim.done = true;
+            release(victim);
+            preempted++;
+        }
+
+        // The slot goes to the waiting request first, the preempted one queues up again after it
+        schedule();
+        victim.onPreempted();
+    }
+
+    private Ticket firstWaiting() {
+        for (Priority priority : Priority.values()) {
+            ArrayDeque<Ticket> queue = queues.get(priority);
+            if (!queue.isEmpty() && running.get(priority) < priority.maxRunning())
+                return queue.peek();
+        }
+        return null;
+    }
+
+    /**
+     * The running request of the lowest preemptible priority below the given one, the latest
+     * started among them as it has the least to lose.
+     */
+    private Ticket victimFor(Priority priority) {
+        Ticket victim = null;
+
+        for (Ticket ticket : runningTickets) {
+            Priority candidate = ticket.getPriority();
+
+            if (!candidate.isPreemptible() || candidate.ordinal() <= priority.ordinal())
+                continue;
+
+            if (victim == null || candidate.ordinal() >= victim.getPriority().ordinal())
+                victim = ticket;
+        }
+
+        return victim;
+    }
+
+    private void release(Ticket ticket) {
+        ticket.running = false;
+        runningTickets.remove(ticket);
+        running.put(ticket.getPriority(), running.get(ticket.getPriority()) - 1);
+    }
+
+    public synchronized int getRunningCount(Priority priority) {
+        return running.get(priority);
+    }
+
+    public synchronized int getWaitingCount(Priority priority) {
+        return queues.get(priority).size();
+    }
+
+    /**
+     * Average time the requests of a priority waited for their slot, the latency the scheduler
+     * adds to them.
+     */
+    public synchronized long getAverageWaitMillis(Priority priority) {
+        long count = started.get(priority);
+        return count > 0 ? waitedMillis.get(priority) / count : 0;
+    }
+
+    public synchronized long getDeferredCount() {
+        return deferred;
+    }
+
+    public synchronized long getPreemptedCount() {
+        return preempted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RequestScheduler[running=" + runningTickets.size() + "/" + maxRunning
+                + ", visibleWait=" + getAverageWaitMillis(Priority.VISIBLE) + "ms"
+                + ", deferred=" + deferred + ", preempted=" + preempted + "]";
+    }
+}
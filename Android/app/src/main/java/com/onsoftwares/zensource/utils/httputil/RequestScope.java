@@ -0,0 +1,107 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Requests started for a screen, stopped together when it goes away. Requests are cancelled on
+ * {@link #close()}, or only detached when they should finish anyway, as a like; either way their
+ * callbacks are dropped, so nothing is delivered to the screen nor keeps it in memory.
+ *
+ * Requests are held weakly, the running call keeps them alive until it is done.
+ */
+public class RequestScope {
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<HttpUtil, Boolean> requests = new WeakHashMap<>();
+
+    private boolean closed;
+    private long cancelled;
+    private long detached;
+
+    /**
+     * Adds a request, cancelled or detached right away if the scope is already closed.
+     */
+    void add(HttpUtil request, boolean cancelOnClose) {
+        synchronized (this) {
+            if (!closed) {
+                requests.put(request, cancelOnClose);
+                return;
+            }
+        }
+
+        stop(request, cancelOnClose);
+    }
+
+    public void close() {
+        List<Map.Entry<HttpUtil, Boolean>> toStop;
+
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            toStop = new ArrayList<>(requests.entrySet());
+            requests.clear();
+        }
+
+        for (Map.Entry<HttpUtil, Boolean> entry : toStop)
+            stop(entry.getKey(), entry.getValue());
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Runs on the main thread, unless the scope is closed by then.
+     */
+    public void runOnMainThread(final Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            if (!isClosed())
+                runnable.run();
+            return;
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isClosed())
+                    runnable.run();
+            }
+        });
+    }
+
+    public synchronized long getCancelledCount() {
+        return cancelled;
+    }
+
+    public synchronized long getDetachedCount() {
+        return detached;
+    }
+
+    private void stop(HttpUtil request, boolean cancel) {
+        if (cancel)
+            request.cancel();
+        else
+            request.detach();
+
+        synchronized (this) {
+            if (cancel)
+                cancelled++;
+            else
+                detached++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RequestScope[closed=" + closed + ", inFlight=" + requests.size()
+                + ", cancelled=" + cancelled + ", detached=" + detached + "]";
+    }
+}
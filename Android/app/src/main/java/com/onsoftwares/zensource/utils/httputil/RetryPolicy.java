@@ -0,0 +1,101 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * How many times a failed request is sent again and how long to wait in between. Waits grow
+ * exponentially and are picked at random below that bound, so clients failing together do not
+ * come back together.
+ *
+ * GETs are retried on any failure that may be temporary: no response, 408, 429 and 5xx. Other
+ * methods may have changed something on the server already, so they are retried only when the
+ * request could not have reached it, that is when the connection could not be made.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private static final Random random = new Random();
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts attempts in total, the first one included
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Whether to send the request again after the given attempt, counted from 1, failed.
+     */
+    public boolean shouldRetry(int attempt, HttpException e, boolean idempotent) {
+        if (attempt >= maxAttempts || e.isTimeout() || e.getCause() instanceof LimitedInputStream.PayloadTooLargeException)
+            return false;
+
+        if (isConnectFailure(e.getCause()))
+            return true;
+
+        if (!idempotent)
+            return false;
+
+        if (!e.hasResponse())
+            return e.getCause() != null;
+
+        int code = e.getCode();
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    /**
+     * Wait before the next attempt, random up to base * 2^(attempt - 1), capped at the max.
+     */
+    public long delayAfter(int attempt) {
+        long bound = baseDelayMillis << Math.min(attempt - 1, 20);
+        bound = Math.min(bound, maxDelayMillis);
+
+        if (bound <= 0)
+            return 0;
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * True when no connection was made, so nothing of the request was sent.
+     */
+    public static boolean isConnectFailure(Throwable cause) {
+        if (cause instanceof ConnectException || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException)
+            return true;
+
+        // Android words it "failed to connect to ...", the JDK "connect timed out"
+        return cause instanceof SocketTimeoutException
+                && cause.getMessage() != null
+                && cause.getMessage().contains("connect");
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[attempts=" + maxAttempts + ", base=" + baseDelayMillis + "ms, max=" + maxDelayMillis + "ms]";
+    }
+}
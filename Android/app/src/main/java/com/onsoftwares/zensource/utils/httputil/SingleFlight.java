@@ -0,0 +1,105 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+/**
+ * GET requests in flight, by canonical URL and headers. A request identical to one in flight
+ * does not go to the network, it waits for the first one and gets its result. If the first one
+ * is cancelled, the ones waiting are sent again.
+ */
+public class SingleFlight {
+
+    private static SingleFlight instance;
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private long started;
+    private long coalesced;
+
+    private static class Flight {
+        final HttpUtil leader;
+        final List<HttpUtil> followers = new ArrayList<>();
+
+        Flight(HttpUtil leader) {
+            this.leader = leader;
+        }
+    }
+
+    public static synchronized SingleFlight getInstance() {
+        if (instance == null)
+            instance = new SingleFlight();
+        return instance;
+    }
+
+    /**
+     * Query parameters sorted, so the order they were added in does not matter. The parser is
+     * part of the key too, as followers get the parsed result.
+     */
+    static String keyOf(Request request, String parser) {
+        HttpUrl url = request.url();
+        List<String> names = new ArrayList<>(url.queryParameterNames());
+        Collections.sort(names);
+
+        HttpUrl.Builder canonical = url.newBuilder().query(null);
+        for (String name : names) {
+            for (String value : url.queryParameterValues(name))
+                canonical.addQueryParameter(name, value);
+        }
+
+        return request.method() + " " + canonical.build() + "\n" + request.headers() + parser;
+    }
+
+    /**
+     * Returns true if the request joined one in flight and must not be sent, false if it leads a
+     * new flight and must call {@link #land} once it has a result.
+     */
+    synchronized boolean join(String key, HttpUtil httpUtil) {
+        Flight flight = flights.get(key);
+
+        if (flight == null) {
+            flights.put(key, new Flight(httpUtil));
+            started++;
+            return false;
+        }
+
+        flight.followers.add(httpUtil);
+        coalesced++;
+        return true;
+    }
+
+    /**
+     * Ends the flight of the leader, returning the requests waiting for its result.
+     */
+    synchronized List<HttpUtil> land(String key, HttpUtil leader) {
+        Flight flight = flights.get(key);
+        if (flight == null || flight.leader != leader)
+            return Collections.emptyList();
+
+        flights.remove(key);
+        return flight.followers;
+    }
+
+    public synchronized long getStartedCount() {
+        return started;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    public synchronized int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SingleFlight[started=" + started + ", coalesced=" + coalesced + ", inFlight=" + flights.size() + "]";
+    }
+}
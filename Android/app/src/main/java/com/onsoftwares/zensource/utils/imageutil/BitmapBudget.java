@@ -0,0 +1,167 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Process wide budget of bitmap memory, shared by the card list, the zoom screen, the
+ * notification and sharing.
+ *
+ * Owners of long lived bitmaps, like the caches and the zoom tiles, register and report how many
+ * bytes they hold. Before a big allocation the caller asks for the bytes with its priority; when
+ * they do not fit, owners of lower priority are asked to shrink, the lowest first. Short lived
+ * bitmaps, as the notification icon or a share being encoded, are only checked when allocated.
+ */
+public class BitmapBudget {
+
+    public static final int PRIORITY_POOL = 0;
+    public static final int PRIORITY_BACKGROUND = 10;
+    public static final int PRIORITY_LIST = 20;
+    public static final int PRIORITY_ZOOM = 30;
+    public static final int PRIORITY_USER_ACTION = 40;
+
+    private static final int MEMORY_CLASS_FRACTION = 3;
+
+    private static BitmapBudget instance;
+
+    public interface Owner {
+        String getName();
+
+        int getPriority();
+
+        long getBitmapBytes();
+
+        /**
+         * Frees bitmaps until it holds at most the given bytes, or as close as it can get.
+         */
+        void trimTo(long bytes);
+    }
+
+    private final long maxBytes;
+    private final List<Owner> owners = new ArrayList<>();
+
+    private long requests;
+    private long denied;
+    private long trims;
+    private long bytesTrimmed;
+
+    private BitmapBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance != null)
+            return;
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        instance = new BitmapBudget((long) activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION);
+    }
+
+    public static synchronized BitmapBudget getInstance() {
+        if (instance == null)
+            instance = new BitmapBudget(Runtime.getRuntime().maxMemory() / MEMORY_CLASS_FRACTION);
+        return instance;
+    }
+
+    public synchronized void register(Owner owner) {
+        if (!owners.contains(owner))
+            owners.add(owner);
+    }
+
+    public synchronized void unregister(Owner owner) {
+        owners.remove(owner);
+    }
+
+    /**
+     * Makes room for a bitmap of the given size, shrinking owners of lower priority if needed.
+     * Returns false when it still does not fit, so the caller can fall back to something smaller.
+     */
+    public synchronized boolean request(int priority, long bytes) {
+        requests++;
+
+        long over = getUsedBytes() + bytes - maxBytes;
+        if (over <= 0)
+            return true;
+
+        List<Owner> lower = new ArrayList<>();
+        for (Owner owner : owners) {
+            if (owner.getPriority() < priority)
+                lower.add(owner);
+        }
+
+        Collections.sort(lower, new Comparator<Owner>() {
+            @Override
+            public int compare(Owner a, Owner b) {
+                return Integer.valueOf(a.getPriority()).compareTo(b.getPriority());
+            }
+        });
+
+        for (Owner owner : lower) {
+            long before = owner.getBitmapBytes();
+            if (before <= 0)
+                continue;
+
+            owner.trimTo(Math.max(0, before - over));
+
+            // Bitmaps still on screen cannot be freed, so what was freed is measured again
+            long freed = Math.max(0, before - owner.getBitmapBytes());
+            trims++;
+            bytesTrimmed += freed;
+            over -= freed;
+
+            if (over <= 0)
+                return true;
+        }
+
+        denied++;
+        return false;
+    }
+
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        for (Owner owner : owners)
+            used += owner.getBitmapBytes();
+        return used;
+    }
+
+    public synchronized long getAvailableBytes() {
+        return maxBytes - getUsedBytes();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getRequestCount() {
+        return requests;
+    }
+
+    public synchronized long getDeniedCount() {
+        return denied;
+    }
+
+    public synchronized long getTrimCount() {
+        return trims;
+    }
+
+    public synchronized long getBytesTrimmed() {
+        return bytesTrimmed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("BitmapBudget[used=").append(getUsedBytes()).append("/").append(maxBytes)
+                .append(", requests=").append(requests).append(", denied=").append(denied)
+                .append(", trims=").append(trims).append(", bytesTrimmed=").append(bytesTrimmed);
+
+        for (Owner owner : owners)
+            builder.append(", ").append(owner.getName()).append("=").append(owner.getBitmapBytes());
+
+        return builder.append("]").toString();
+    }
+}
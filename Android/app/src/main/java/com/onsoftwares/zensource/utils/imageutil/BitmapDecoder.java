@@ -0,0 +1,135 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Size aware decoding of the quote images.
+ *
+ * The bounds are read first, then the image is decoded with the biggest power of two
+ * inSampleSize that keeps it covering the target, and scaled down the rest of the way.
+ */
+public class BitmapDecoder {
+
+    private static final int LOW_MEMORY_CLASS = 64;
+
+    private static Bitmap.Config preferredConfig = Bitmap.Config.ARGB_8888;
+
+    /**
+     * Low memory devices decode as RGB_565, quote images are opaque so nothing is lost but colour
+     * depth.
+     */
+    public static void init(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        if (activityManager.isLowRamDevice() || activityManager.getMemoryClass() <= LOW_MEMORY_CLASS)
+            preferredConfig = Bitmap.Config.RGB_565;
+    }
+
+    public static Bitmap.Config getPreferredConfig() {
+        return preferredConfig;
+    }
+
+    public static Bitmap decode(byte[] data) {
+        return decode(data, 0, 0);
+    }
+
+    /**
+     * Decodes the image so it covers reqWidth x reqHeight, as the card uses centerCrop.
+     * A size of 0 decodes the image at full resolution.
+     */
+    public static Bitmap decode(byte[] data, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = getOptions(data, reqWidth, reqHeight);
+        if (options == null)
+            return null;
+
+        // Decodes into a pooled bitmap of the same size when there is one
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.getInstance().get(getDecodedWidth(options), getDecodedHeight(options), options.inPreferredConfig);
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Decodes the image so it fits inside maxWidth x maxHeight, keeping its aspect ratio.
+     */
+    public static Bitmap decodeToFit(byte[] data, int maxWidth, int maxHeight) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+            return null;
+
+        // The size that covers the fitted one is the fitted size itself
+        float scale = Math.min(1f, Math.min((float) maxWidth / bounds.outWidth, (float) maxHeight / bounds.outHeight));
+        return decode(data, Math.max(1, Math.round(bounds.outWidth * scale)), Math.max(1, Math.round(bounds.outHeight * scale)));
+    }
+
+    static BitmapFactory.Options getOptions(byte[] data, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        int srcWidth = options.outWidth;
+        int srcHeight = options.outHeight;
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = preferredConfig;
+        options.inSampleSize = calculateInSampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+
+        if (reqWidth > 0 && reqHeight > 0) {
+            int sampledWidth = srcWidth / options.inSampleSize;
+            float scale = Math.max((float) reqWidth / sampledWidth, (float) reqHeight * options.inSampleSize / srcHeight);
+
+            // Scales the rest of the way when the sampled image is still noticeably bigger
+            if (scale < 0.9f) {
+                options.inScaled = true;
+                options.inDensity = sampledWidth;
+                options.inTargetDensity = Math.round(sampledWidth * scale);
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * Width of the bitmap the options will decode to, from the bounds read by {@link #getOptions}.
+     */
+    static int getDecodedWidth(BitmapFactory.Options options) {
+        return scaled((int) Math.ceil((double) options.outWidth / options.inSampleSize), options);
+    }
+
+    static int getDecodedHeight(BitmapFactory.Options options) {
+        return scaled((int) Math.ceil((double) options.outHeight / options.inSampleSize), options);
+    }
+
+    private static int scaled(int size, BitmapFactory.Options options) {
+        if (!options.inScaled || options.inDensity == 0 || options.inTargetDensity == 0)
+            return size;
+        return (int) (size * ((float) options.inTargetDensity / options.inDensity) + 0.5f);
+    }
+
+    public static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (reqWidth <= 0 || reqHeight <= 0)
+            return inSampleSize;
+
+        while ((srcWidth / (inSampleSize * 2)) >= reqWidth && (srcHeight / (inSampleSize * 2)) >= reqHeight)
+            inSampleSize *= 2;
+
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,199 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * In-memory cache of decoded card bitmaps, keyed by {@link ImageLoader#keyFor} and sized in bytes.
+ *
+ * Bitmaps shown on screen are counted with {@link #acquire} / {@link #release}. A bitmap goes to
+ * the {@link BitmapPool} only when it is neither cached nor shown anywhere.
+ *
+ * Counts for the {@link BitmapBudget} both the cached bitmaps and the ones shown but not cached
+ * anymore, which cannot be freed until released.
+ */
+public class BitmapMemoryCache implements BitmapBudget.Owner {
+
+    private static final int MEMORY_CLASS_FRACTION = 8;
+
+    private static BitmapMemoryCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+    private final Map<Bitmap, Integer> inUse;
+    // The values of the cache, kept along so releases do not go through a snapshot of it
+    private final Set<Bitmap> cached = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    private BitmapMemoryCache(int maxBytes) {
+        // Bitmap does not override equals, so this is an identity map that does not hold the
+        // bitmaps
+        this.inUse = new WeakHashMap<>();
+        this.cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue)
+                    onRemoved(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Sizes the cache from the memory class of the device. Called once by the Application.
+     */
+    public static synchronized void init(Context context) {
+        if (instance != null)
+            return;
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+
+        instance = new BitmapMemoryCache(memoryClassBytes / MEMORY_CLASS_FRACTION);
+    }
+
+    public static synchronized BitmapMemoryCache getInstance() {
+        if (instance == null)
+            instance = new BitmapMemoryCache((int) (Runtime.getRuntime().maxMemory() / MEMORY_CLASS_FRACTION));
+        return instance;
+    }
+
+    public Bitmap get(String key) {
+        return cache.get(key);
+    }
+
+    public synchronized void put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null)
+            return;
+
+        // Before the put, which removes it again if it is too large to be cached
+        cached.add(bitmap);
+        cache.put(key, bitmap);
+    }
+
+    public void remove(String key) {
+        cache.remove(key);
+    }
+
+    /**
+     * Gets the cached bitmap and marks it as shown, so it is not reused while on screen.
+     */
+    public synchronized Bitmap acquire(String key) {
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null)
+            acquire(bitmap);
+        return bitmap;
+    }
+
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer count = inUse.get(bitmap);
+        inUse.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = inUse.get(bitmap);
+        if (count == null)
+            return;
+
+        if (count > 1) {
+            inUse.put(bitmap, count - 1);
+        } else {
+            inUse.remove(bitmap);
+            if (!cached.contains(bitmap))
+                BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    /**
+     * Called by the cache out of its own lock, from threads that may not hold this one.
+     */
+    private synchronized void onRemoved(Bitmap bitmap) {
+        cached.remove(bitmap);
+
+        if (!inUse.containsKey(bitmap))
+            BitmapPool.getInstance().put(bitmap);
+    }
+
+    @Override
+    public String getName() {
+        return "BitmapMemoryCache";
+    }
+
+    @Override
+    public int getPriority() {
+        return BitmapBudget.PRIORITY_LIST;
+    }
+
+    @Override
+    public synchronized long getBitmapBytes() {
+        return cache.size() + getUncachedInUseBytes();
+    }
+
+    @Override
+    public synchronized void trimTo(long bytes) {
+        cache.trimToSize((int) Math.max(0, Math.min(cache.size(), bytes - getUncachedInUseBytes())));
+    }
+
+    private long getUncachedInUseBytes() {
+        long bytes = 0;
+        for (Bitmap bitmap : inUse.keySet()) {
+            if (!cached.contains(bitmap) && !bitmap.isRecycled())
+                bytes += bitmap.getByteCount();
+        }
+        return bytes;
+    }
+
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+            cache.evictAll();
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            cache.trimToSize(cache.maxSize() / 2);
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return cache.maxSize();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    public float getHitRate() {
+        int requests = cache.hitCount() + cache.missCount();
+        return requests == 0 ? 0 : (float) cache.hitCount() / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapMemoryCache[size=" + getSize() + "/" + getMaxSize()
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", hitRate=" + getHitRate() + "]";
+    }
+}
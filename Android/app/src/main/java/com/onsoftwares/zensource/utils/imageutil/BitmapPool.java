@@ -0,0 +1,181 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bitmaps no longer shown nor cached, grouped by size and config, to be decoded into again
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ */
+public class BitmapPool implements BitmapBudget.Owner {
+
+    private static final int MEMORY_CLASS_FRACTION = 16;
+
+    private static BitmapPool instance;
+
+    private final int maxBytes;
+    private final Map<String, LinkedList<Bitmap>> groups;
+    private final LinkedList<Bitmap> leastRecentlyAdded;
+    private int currentBytes;
+
+    private long hits;
+    private long misses;
+    private long bytesReused;
+    private long evictions;
+
+    private BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.groups = new HashMap<>();
+        this.leastRecentlyAdded = new LinkedList<>();
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance != null)
+            return;
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        instance = new BitmapPool(activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION);
+    }
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null)
+            instance = new BitmapPool((int) (Runtime.getRuntime().maxMemory() / MEMORY_CLASS_FRACTION));
+        return instance;
+    }
+
+    private static String groupKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    /**
+     * Adds a bitmap nobody uses anymore. Immutable or too big bitmaps are just dropped.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+            return;
+
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes)
+            return;
+
+        String key = groupKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> group = groups.get(key);
+
+        if (group == null) {
+            group = new LinkedList<>();
+            groups.put(key, group);
+        }
+
+        if (group.contains(bitmap))
+            return;
+
+        group.addLast(bitmap);
+        leastRecentlyAdded.addLast(bitmap);
+        currentBytes += size;
+
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * A bitmap of exactly this size and config, or null. The caller owns the returned bitmap.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> group = groups.get(groupKey(width, height, config));
+
+        if (group == null || group.isEmpty()) {
+            misses++;
+            return null;
+        }
+
+        Bitmap bitmap = group.removeLast();
+        leastRecentlyAdded.remove(bitmap);
+        currentBytes -= bitmap.getAllocationByteCount();
+
+        hits++;
+        bytesReused += bitmap.getAllocationByteCount();
+
+        return bitmap;
+    }
+
+    @Override
+    public String getName() {
+        return "BitmapPool";
+    }
+
+    @Override
+    public int getPriority() {
+        return BitmapBudget.PRIORITY_POOL;
+    }
+
+    @Override
+    public synchronized long getBitmapBytes() {
+        return currentBytes;
+    }
+
+    @Override
+    public synchronized void trimTo(long bytes) {
+        trimToSize((int) Math.max(0, Math.min(currentBytes, bytes)));
+    }
+
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+            clear();
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            trimToSize(maxBytes / 2);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(int size) {
+        while (currentBytes > size && !leastRecentlyAdded.isEmpty()) {
+            Bitmap bitmap = leastRecentlyAdded.removeFirst();
+            LinkedList<Bitmap> group = groups.get(groupKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+
+            if (group != null)
+                group.remove(bitmap);
+
+            currentBytes -= bitmap.getAllocationByteCount();
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized int getSize() {
+        return currentBytes;
+    }
+
+    public int getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getBytesReused() {
+        return bytesReused;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses
+                + ", bytesReused=" + bytesReused + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,823 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import okio.ByteString;
+
+/**
+ * Persistent store of the encoded quote images, under the app cache dir.
+ *
+ * Images are keyed by {@link ImageLoader#keyFor} and stored once per content hash, appended to
+ * packed segment files that are memory-mapped for reading. An index file maps the keys to the
+ * hashes and the hashes to their place in the segments. Entries are evicted least recently used
+ * first to stay under the byte budget, and after {@link #TTL}.
+ *
+ * Writes are crash safe: a record is synced to its segment before the index refers to it, each
+ * record carries a CRC checked on every read, and the index is replaced atomically. A missing or
+ * broken index is rebuilt by scanning the segments.
+ *
+ * Segments left with few live entries are compacted into a new one, on the index writer thread.
+ * Each process writes to a new segment, so a record torn by a crash is never appended to.
+ */
+public class DiskImageStore {
+
+    public static final String DIRECTORY = "imagestore";
+
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final int RECORD_MAGIC = 0x5A454E49;
+    private static final int INDEX_VERSION = 2;
+    private static final int HASH_SIZE = 20;
+    private static final long DEFAULT_MAX_BYTES = 50 * 1024 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long TTL = TimeUnit.DAYS.toMillis(30);
+    private static final long INDEX_WRITE_DELAY = 2000;
+    private static final float COMPACT_LIVE_RATIO = 0.25f;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] NO_DATA = new byte[0];
+
+    private static DiskImageStore instance;
+
+    private final File directory;
+    private final long maxBytes;
+    private final Map<String, String> keys = new HashMap<>();
+    // Segment of the record of each key, which must be written again when the segment goes
+    private final Map<String, Integer> keySegments = new HashMap<>();
+    private final LinkedHashMap<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    private final ScheduledExecutorService indexWriter = Executors.newSingleThreadScheduledExecutor();
+
+    private boolean loaded;
+    private boolean indexWriteScheduled;
+    private boolean compactionScheduled;
+    private Segment activeSegment;
+    private int nextSegmentId;
+    private long liveBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    DiskImageStore(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance == null)
+            instance = new DiskImageStore(new File(context.getCacheDir(), DIRECTORY), DEFAULT_MAX_BYTES);
+    }
+
+    public static synchronized DiskImageStore getInstance() {
+        if (instance == null)
+            throw new IllegalStateException("DiskImageStore.init was not called");
+        return instance;
+    }
+
+    /**
+     * The stored image, or null. Reads the disk, so must not be called on the main thread.
+     */
+    public synchronized byte[] get(String key) {
+        ensureLoaded();
+
+        String hash = keys.get(key);
+        Blob blob = hash != null ? blobs.get(hash) : null;
+
+        if (blob == null || isExpired(blob)) {
+            if (blob != null)
+                removeBlob(blob, false);
+            misses++;
+            return null;
+        }
+
+        try {
+            byte[] data = read(blob);
+            hits++;
+            return data;
+        } catch (IOException e) {
+            Log.e("DiskImageStore", "Dropping unreadable entry " + key, e);
+            removeBlob(blob, false);
+            misses++;
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        ensureLoaded();
+
+        String hash = keys.get(key);
+        return hash != null && blobs.containsKey(hash);
+    }
+
+    /**
+     * Stores the image under the key. Content already stored, under any key, is not written again.
+     */
+    public synchronized void put(String key, byte[] data) {
+        if (key == null || data == null || data.length == 0)
+            return;
+
+        ensureLoaded();
+
+        String hash = ByteString.of(data).sha1().hex();
+        String oldHash = keys.put(key, hash);
+        Blob blob = blobs.get(hash);
+
+        try {
+            if (blob != null) {
+                blob.createdAt = System.currentTimeMillis();
+
+                // Recorded in the segment too, so rebuilding the index does not lose the key
+                if (!hash.equals(oldHash))
+                    keySegments.put(key, append(key, hash, NO_DATA).segment);
+            } else {
+                blob = append(key, hash, data);
+                blobs.put(hash, blob);
+                keySegments.put(key, blob.segment);
+                liveBytes += blob.length;
+            }
+        } catch (IOException e) {
+            Log.e("DiskImageStore", "Could not store " + key, e);
+            keys.remove(key);
+            keySegments.remove(key);
+            return;
+        }
+
+        if (oldHash != null && !oldHash.equals(hash) && !keys.containsValue(oldHash)) {
+            Blob orphan = blobs.get(oldHash);
+            if (orphan != null)
+                removeBlob(orphan, false);
+        }
+
+        trimToSize();
+        scheduleIndexWrite(INDEX_WRITE_DELAY);
+    }
+
+    public synchronized void remove(String key) {
+        ensureLoaded();
+
+        String hash = keys.remove(key);
+        keySegments.remove(key);
+        if (hash == null || keys.containsValue(hash))
+            return;
+
+        Blob blob = blobs.get(hash);
+        if (blob != null)
+            removeBlob(blob, false);
+
+        scheduleIndexWrite(INDEX_WRITE_DELAY);
+    }
+
+    /**
+     * Writes the index now, e.g. when the app goes to background.
+     */
+    public synchronized void flush() {
+        if (loaded)
+            scheduleIndexWrite(0);
+    }
+
+    public synchronized long getSize() {
+        return liveBytes;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiskImageStore[size=" + liveBytes + "/" + maxBytes + ", entries=" + blobs.size()
+                + ", segments=" + segments.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    private boolean isExpired(Blob blob) {
+        return blob.createdAt + TTL < System.currentTimeMillis();
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        directory.mkdirs();
+
+        File[] files = directory.listFiles();
+        int lastSegment = 0;
+
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().startsWith(SEGMENT_PREFIX))
+                    continue;
+
+                try {
+                    int id = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length()));
+                    segments.put(id, new Segment(id, file));
+                    lastSegment = Math.max(lastSegment, id);
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            }
+        }
+
+        try {
+            readIndex();
+        } catch (IOException e) {
+            Log.w("DiskImageStore", "Rebuilding the index", e);
+            keys.clear();
+            keySegments.clear();
+            blobs.clear();
+            for (Segment segment : segments.values())
+                scan(segment);
+
+            // Keys whose content was in a broken record
+            Iterator<String> iterator = keys.values().iterator();
+            while (iterator.hasNext()) {
+                if (!blobs.containsKey(iterator.next()))
+                    iterator.remove();
+            }
+            keySegments.keySet().retainAll(keys.keySet());
+        }
+
+        liveBytes = 0;
+        for (Blob blob : blobs.values()) {
+            liveBytes += blob.length;
+            segments.get(blob.segment).liveBytes += blob.length;
+        }
+
+        nextSegmentId = lastSegment + 1;
+        activeSegment = nextSegment();
+        segments.put(activeSegment.id, activeSegment);
+
+        // Segments nothing refers to anymore, e.g. written before a crash
+        reclaimSegments();
+        trimToSize();
+    }
+
+    private void readIndex() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, INDEX_FILE))));
+
+        try {
+            if (in.readInt() != INDEX_VERSION)
+                throw new IOException("Unknown index version");
+
+            int blobCount = in.readInt();
+            for (int i = 0; i < blobCount; i++) {
+                byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+
+                Blob blob = new Blob(ByteString.of(hash).hex(), in.readInt(), in.readLong(), in.readInt(), in.readLong(), in.readLong());
+                Segment segment = segments.get(blob.segment);
+
+                // Entries past the end of their segment were never fully written
+                if (segment != null && blob.offset + blob.length <= segment.file.length())
+                    blobs.put(blob.hash, blob);
+            }
+
+            int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                String key = in.readUTF();
+                byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+                int segment = in.readInt();
+
+                String hex = ByteString.of(hash).hex();
+                if (blobs.containsKey(hex)) {
+                    keys.put(key, hex);
+                    keySegments.put(key, segment);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the index to a temp file and renames it over the old one, so a crash leaves either.
+     */
+    private void writeIndex() throws IOException {
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+
+        try {
+            out.writeInt(INDEX_VERSION);
+
+            // In least recently used order, so the order survives a restart
+            out.writeInt(blobs.size());
+            for (Blob blob : blobs.values()) {
+                out.write(ByteString.decodeHex(blob.hash).toByteArray());
+                out.writeInt(blob.segment);
+                out.writeLong(blob.offset);
+                out.writeInt(blob.length);
+                out.writeLong(blob.crc);
+                out.writeLong(blob.createdAt);
+            }
+
+            out.writeInt(keys.size());
+            for (Map.Entry<String, String> entry : keys.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(ByteString.decodeHex(entry.getValue()).toByteArray());
+                out.writeInt(keySegments.get(entry.getKey()));
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(new File(directory, INDEX_FILE)))
+            throw new IOException("Could not replace the index");
+    }
+
+    private void scheduleIndexWrite(long delay) {
+        if (indexWriteScheduled && delay > 0)
+            return;
+
+        indexWriteScheduled = true;
+        indexWriter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskImageStore.this) {
+                    indexWriteScheduled = false;
+
+                    try {
+                        writeIndex();
+                    } catch (IOException e) {
+                        Log.e("DiskImageStore", "Could not write the index", e);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a record to the active segment and syncs it. A record with no data adds a key to
+     * the content already stored under its hash.
+     */
+    private Blob append(String key, String hash, byte[] data) throws IOException {
+        if (activeSegment.size > 0 && activeSegment.size + recordSize(key, data) > MAX_SEGMENT_SIZE) {
+            activeSegment.closeOutput();
+            activeSegment = nextSegment();
+            segments.put(activeSegment.id, activeSegment);
+        }
+
+        Blob blob = writeRecord(activeSegment, key, hash, data);
+        activeSegment.openOutput().getFD().sync();
+        activeSegment.liveBytes += data.length;
+
+        return blob;
+    }
+
+    private Segment nextSegment() {
+        int id = nextSegmentId++;
+        return new Segment(id, new File(directory, SEGMENT_PREFIX + id));
+    }
+
+    private static int headerSize(byte[] keyBytes) {
+        return 4 + 2 + keyBytes.length + HASH_SIZE + 4 + 8;
+    }
+
+    private static long recordSize(String key, byte[] data) {
+        return headerSize(key.getBytes(UTF_8)) + data.length;
+    }
+
+    /**
+     * Record: magic, key, hash, data length, CRC, data. Not synced.
+     */
+    private static Blob writeRecord(Segment segment, String key, String hash, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int headerSize = headerSize(keyBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(RECORD_MAGIC);
+        header.putShort((short) keyBytes.length);
+        header.put(keyBytes);
+        header.put(ByteString.decodeHex(hash).toByteArray());
+        header.putInt(data.length);
+        header.putLong(crc.getValue());
+
+        FileOutputStream out = segment.openOutput();
+        out.write(header.array());
+        out.write(data);
+
+        long offset = segment.size + headerSize;
+        segment.size += headerSize + data.length;
+
+        return new Blob(hash, segment.id, offset, data.length, crc.getValue(), System.currentTimeMillis());
+    }
+
+    private byte[] read(Blob blob) throws IOException {
+        Segment segment = segments.get(blob.segment);
+        if (segment == null)
+            throw new IOException("Missing segment " + blob.segment);
+
+        MappedByteBuffer buffer = segment.map(blob.offset + blob.length);
+        byte[] data = new byte[blob.length];
+
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) blob.offset);
+        view.get(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != blob.crc)
+            throw new IOException("CRC mismatch");
+
+        return data;
+    }
+
+    /**
+     * Rebuilds the entries of a segment from its records, stopping at the first broken one.
+     */
+    private void scan(Segment segment) {
+        try {
+            long length = segment.file.length();
+            MappedByteBuffer buffer = segment.map(length);
+            ByteBuffer view = buffer.duplicate();
+
+            while (view.remaining() > 4 + 2) {
+                int start = view.position();
+                if (view.getInt() != RECORD_MAGIC)
+                    break;
+
+                byte[] keyBytes = new byte[view.getShort()];
+                byte[] hash = new byte[HASH_SIZE];
+                if (view.remaining() < keyBytes.length + HASH_SIZE + 4 + 8)
+                    break;
+
+                view.get(keyBytes);
+                view.get(hash);
+                int dataLength = view.getInt();
+                long crc = view.getLong();
+
+                if (dataLength < 0 || view.remaining() < dataLength)
+                    break;
+
+                Blob blob = new Blob(ByteString.of(hash).hex(), segment.id, view.position(), dataLength, crc, segment.file.lastModified());
+
+                try {
+                    read(blob);
+                } catch (IOException e) {
+                    break;
+                }
+
+                // Records with no data only add their key to the content
+                if (dataLength > 0)
+                    blobs.put(blob.hash, blob);
+
+                String key = new String(keyBytes, UTF_8);
+                keys.put(key, blob.hash);
+                keySegments.put(key, segment.id);
+                view.position(start + 4 + 2 + keyBytes.length + HASH_SIZE + 4 + 8 + dataLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w("DiskImageStore", "Could not scan " + segment.file, e);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Blob> iterator = new ArrayList<>(blobs.values()).iterator();
+        List<Blob> evicted = new ArrayList<>();
+        long size = liveBytes;
+
+        // Least recently used first
+        while (iterator.hasNext()) {
+            Blob blob = iterator.next();
+
+            if (size > maxBytes || isExpired(blob)) {
+                evicted.add(blob);
+                size -= blob.length;
+            }
+        }
+
+        for (Blob blob : evicted) {
+            removeBlob(blob, true);
+            evictions++;
+        }
+
+        if (!evicted.isEmpty())
+            reclaimSegments();
+    }
+
+    private void removeBlob(Blob blob, boolean deferReclaim) {
+        if (blobs.remove(blob.hash) == null)
+            return;
+
+        liveBytes -= blob.length;
+
+        Segment segment = segments.get(blob.segment);
+        if (segment != null)
+            segment.liveBytes -= blob.length;
+
+        Iterator<Map.Entry<String, String>> iterator = keys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+
+            if (entry.getValue().equals(blob.hash)) {
+                keySegments.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        if (!deferReclaim)
+            reclaimSegments();
+
+        scheduleIndexWrite(INDEX_WRITE_DELAY);
+    }
+
+    /**
+     * Compacts the segments in background, so the gets and puts of the other threads do not wait
+     * for it.
+     */
+    private void reclaimSegments() {
+        if (compactionScheduled)
+            return;
+
+        compactionScheduled = true;
+        indexWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Deletes the segments with no live entries, and copies the few live entries of mostly dead
+     * segments to a new one before deleting them too. The store is locked to pick the entries
+     * and to switch them over, not while they are written. Every key of an entry is written
+     * with it, and the keys of the entries left in place get their record written again, so
+     * rebuilding the index from the segments finds them all.
+     */
+    private void compact() {
+        Set<Segment> reclaimable = new HashSet<>();
+        List<Blob> moving = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        Map<String, List<String>> keysByHash = new HashMap<>();
+        List<String> rebound = new ArrayList<>();
+        List<String> reboundHashes = new ArrayList<>();
+        Segment target;
+
+        synchronized (this) {
+            compactionScheduled = false;
+
+            // The records of live keys count as live too, a segment may hold nothing else
+            Map<Integer, Long> keyBytes = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : keySegments.entrySet()) {
+                Long bytes = keyBytes.get(entry.getValue());
+                keyBytes.put(entry.getValue(), (bytes != null ? bytes : 0) + headerSize(entry.getKey().getBytes(UTF_8)));
+            }
+
+            for (Segment segment : segments.values()) {
+                Long bytes = keyBytes.get(segment.id);
+                long live = segment.liveBytes + (bytes != null ? bytes : 0);
+
+                if (segment != activeSegment && live <= segment.file.length() * COMPACT_LIVE_RATIO)
+                    reclaimable.add(segment);
+            }
+
+            if (reclaimable.isEmpty())
+                return;
+
+            for (Map.Entry<String, String> entry : keys.entrySet()) {
+                List<String> hashKeys = keysByHash.get(entry.getValue());
+                if (hashKeys == null) {
+                    hashKeys = new ArrayList<>();
+                    keysByHash.put(entry.getValue(), hashKeys);
+                }
+                hashKeys.add(entry.getKey());
+            }
+
+            List<Blob> unreadable = new ArrayList<>();
+
+            for (Blob blob : blobs.values()) {
+                if (!reclaimable.contains(segments.get(blob.segment)))
+                    continue;
+
+                try {
+                    contents.add(read(blob));
+                    moving.add(blob);
+                } catch (IOException e) {
+                    Log.w("DiskImageStore", "Dropping entry " + blob.hash + " while compacting", e);
+                    unreadable.add(blob);
+                }
+            }
+
+            for (Blob blob : unreadable)
+                removeBlob(blob, true);
+
+            Set<String> movingHashes = new HashSet<>();
+            for (Blob blob : moving)
+                movingHashes.add(blob.hash);
+
+            // Keys recorded in a reclaimed segment, of entries which stay where they are
+            for (Map.Entry<String, Integer> entry : keySegments.entrySet()) {
+                String hash = keys.get(entry.getKey());
+
+                if (reclaimable.contains(segments.get(entry.getValue())) && !movingHashes.contains(hash)) {
+                    rebound.add(entry.getKey());
+                    reboundHashes.add(hash);
+                }
+            }
+
+            target = nextSegment();
+        }
+
+        List<Blob> copies = new ArrayList<>();
+        boolean written = !moving.isEmpty() || !rebound.isEmpty();
+
+        try {
+            for (int i = 0; i < moving.size(); i++) {
+                Blob blob = moving.get(i);
+                List<String> hashKeys = keysByHash.get(blob.hash);
+
+                copies.add(writeRecord(target, hashKeys != null ? hashKeys.get(0) : "", blob.hash, contents.get(i)));
+
+                for (int k = 1; hashKeys != null && k < hashKeys.size(); k++)
+                    writeRecord(target, hashKeys.get(k), blob.hash, NO_DATA);
+            }
+
+            for (int i = 0; i < rebound.size(); i++)
+                writeRecord(target, rebound.get(i), reboundHashes.get(i), NO_DATA);
+
+            // A single sync for the whole segment, it is not referred to before
+            if (written)
+                target.openOutput().getFD().sync();
+        } catch (IOException e) {
+            Log.w("DiskImageStore", "Could not compact", e);
+            target.closeOutput();
+            target.file.delete();
+            return;
+        } finally {
+            target.closeOutput();
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < moving.size(); i++) {
+                Blob blob = moving.get(i);
+
+                // Removed meanwhile, its copy is dead data of the new segment
+                if (blobs.get(blob.hash) != blob)
+                    continue;
+
+                Segment old = segments.get(blob.segment);
+                if (old != null)
+                    old.liveBytes -= blob.length;
+
+                blob.segment = target.id;
+                blob.offset = copies.get(i).offset;
+                target.liveBytes += blob.length;
+
+                List<String> hashKeys = keysByHash.get(blob.hash);
+                for (int k = 0; hashKeys != null && k < hashKeys.size(); k++)
+                    rebind(hashKeys.get(k), blob.hash, target);
+            }
+
+            for (int i = 0; i < rebound.size(); i++)
+                rebind(rebound.get(i), reboundHashes.get(i), target);
+
+            if (written)
+                segments.put(target.id, target);
+
+            // The old segments are only deleted once the index on disk does not refer to them
+            try {
+                writeIndex();
+            } catch (IOException e) {
+                Log.e("DiskImageStore", "Could not write the index", e);
+                return;
+            }
+
+            for (Segment segment : reclaimable) {
+                segments.remove(segment.id);
+                segment.closeOutput();
+                segment.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Points the key to its record in the given segment, unless it was put again meanwhile.
+     */
+    private void rebind(String key, String hash, Segment segment) {
+        if (hash.equals(keys.get(key)))
+            keySegments.put(key, segment.id);
+    }
+
+    private static class Blob {
+
+        final String hash;
+        int segment;
+        long offset;
+        final int length;
+        final long crc;
+        long createdAt;
+
+        Blob(String hash, int segment, long offset, int length, long crc, long createdAt) {
+            this.hash = hash;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static class Segment {
+
+        final int id;
+        final File file;
+        long size;
+        long liveBytes;
+        private FileOutputStream output;
+        private MappedByteBuffer buffer;
+
+        Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+            this.size = file.length();
+        }
+
+        FileOutputStream openOutput() throws IOException {
+            if (output == null)
+                output = new FileOutputStream(file, true);
+            return output;
+        }
+
+        void closeOutput() {
+            if (output == null)
+                return;
+
+            try {
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            output = null;
+        }
+
+        /**
+         * Maps the segment read only, again if it grew past the mapped part.
+         */
+        MappedByteBuffer map(long minLength) throws IOException {
+            if (buffer != null && buffer.capacity() >= minLength)
+                return buffer;
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                long length = raf.length();
+                if (length < minLength)
+                    throw new EOFException("Segment " + id + " is shorter than " + minLength);
+
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                return buffer;
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.LruCache;
+
+/**
+ * In-memory cache of the encoded card images, keyed by {@link ImageLoader#keyFor} and sized in
+ * bytes.
+ *
+ * Screens hand images to each other by key through this cache, instead of putting the bytes in
+ * Intent extras.
+ */
+public class EncodedImageCache {
+
+    private static final int MEMORY_CLASS_FRACTION = 32;
+
+    private static EncodedImageCache instance;
+
+    private final LruCache<String, byte[]> cache;
+
+    private EncodedImageCache(int maxBytes) {
+        this.cache = new LruCache<String, byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance != null)
+            return;
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        instance = new EncodedImageCache(activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION);
+    }
+
+    public static synchronized EncodedImageCache getInstance() {
+        if (instance == null)
+            instance = new EncodedImageCache((int) (Runtime.getRuntime().maxMemory() / MEMORY_CLASS_FRACTION));
+        return instance;
+    }
+
+    public byte[] get(String key) {
+        return key != null ? cache.get(key) : null;
+    }
+
+    public void put(String key, byte[] image) {
+        if (key != null && image != null && image.length > 0)
+            cache.put(key, image);
+    }
+
+    public void remove(String key) {
+        cache.remove(key);
+    }
+
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+            cache.evictAll();
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            cache.trimToSize(cache.maxSize() / 2);
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedImageCache[size=" + cache.size() + "/" + cache.maxSize()
+                + ", hits=" + cache.hitCount() + ", misses=" + cache.missCount() + "]";
+    }
+}
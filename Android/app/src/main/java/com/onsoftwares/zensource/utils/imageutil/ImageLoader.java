@@ -0,0 +1,802 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.onsoftwares.zensource.R;
+import com.onsoftwares.zensource.models.ZenCardModel;
+import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
+import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches and decodes card images on small background pools and binds them to ImageViews.
+ *
+ * Each ImageView is tagged with the key of the card it should show, so a recycled view never
+ * receives the bitmap of the card it was showing before. Cards that came without their image are
+ * drawn by {@link ZenCardRenderer}, or fetched from /image/{id} when that fails; the most recently
+ * bound views, the ones on screen, go first.
+ */
+public class ImageLoader {
+
+    public static final String FULL_SIZE_SUFFIX = "_full";
+
+    private static final int FETCH_THREADS = 4;
+    private static final float THROUGHPUT_SMOOTHING = 0.3f;
+    private static final int CROSS_FADE_MILLIS = 200;
+    private static final int LOW_RES_SAMPLE_SIZE = 8;
+
+    private static ImageLoader instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor fetchExecutor;
+    private final Handler mainHandler;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, LoadTask> prefetching = new ConcurrentHashMap<>();
+
+    private float bytesPerSecond;
+    private float averageImageSize;
+
+    private ImageLoader() {
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new BackgroundThreadFactory("ImageLoader-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.fetchExecutor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new BackgroundThreadFactory("ImageFetcher-"));
+        this.fetchExecutor.allowCoreThreadTimeOut(true);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized ImageLoader getInstance() {
+        if (instance == null)
+            instance = new ImageLoader();
+        return instance;
+    }
+
+    public static String keyFor(ZenCardModel z) {
+        return keyFor(z.getId(), z.getLanguage());
+    }
+
+    public static String keyFor(int id, String language) {
+        return id + "_" + language;
+    }
+
+    /**
+     * Shows a preview of the card, or the placeholder, and decodes its image in background,
+     * downsampled to the size of the view, fetching it first when the card has none. Binding the
+     * same card again while it is loading, or after it was loaded, does nothing.
+     */
+    public void load(ZenCardModel z, ImageView imageView, int placeholderResId) {
+        String key = keyFor(z);
+
+        if (key.equals(imageView.getTag(R.id.image_loader_key)))
+            return;
+
+        cancel(imageView);
+        releaseBitmap(imageView);
+        imageView.setTag(R.id.image_loader_key, key);
+
+        // Cached bitmaps are shown as they are, with no preview nor cross-fade
+        Bitmap cached = BitmapMemoryCache.getInstance().acquire(key);
+        if (cached != null) {
+            setBitmap(imageView, cached);
+            return;
+        }
+
+        // A blurred thumbnail of the card, when it was decoded before, until the image is ready
+        Bitmap preview = PreviewCache.getInstance().get(key);
+        if (preview != null) {
+            setPreview(imageView, preview);
+        } else {
+            imageView.setImageResource(placeholderResId);
+            imageView.setTag(R.id.image_loader_preview, null);
+        }
+
+        if (z.hasImage())
+            EncodedImageCache.getInstance().put(key, z.getImage());
+
+        // Scrolled into view while prefetched, the prefetch shows it when done instead of a second
+        // download, and is not behind other prefetches anymore
+        LoadTask prefetch = prefetching.get(key);
+        if (prefetch != null && prefetch.attach(imageView)) {
+            imageView.setTag(R.id.image_loader_task, prefetch);
+            return;
+        }
+
+        int[] size = getTargetSize(imageView);
+        start(new LoadTask(key, z, size[0], size[1], imageView), imageView);
+    }
+
+    /**
+     * Decodes the image of the quote to fit the screen, for the zoom screen. The thumbnail the
+     * list already shows, if still cached, is set right away so the transition can start with it.
+     * The encoded image is taken from {@link EncodedImageCache}, or fetched when it is not there,
+     * and handed to the listener on the main thread, for region decoding when zooming in.
+     */
+    public void loadFullSize(int id, String language, ImageView imageView, OnEncodedImage listener) {
+        String key = keyFor(id, language);
+        String fullKey = key + FULL_SIZE_SUFFIX;
+        byte[] image = EncodedImageCache.getInstance().get(key);
+        ZenCardModel z = new ZenCardModel(id, null, null, language, image, 0, 0);
+
+        cancel(imageView);
+        releaseBitmap(imageView);
+        imageView.setTag(R.id.image_loader_key, fullKey);
+
+        Bitmap cached = BitmapMemoryCache.getInstance().acquire(fullKey);
+        if (cached != null) {
+            setBitmap(imageView, cached);
+
+            if (image != null && listener != null)
+                listener.onEncodedImage(image);
+
+            // Still fetches the encoded image when the listener needs it
+            if (image != null || listener == null)
+                return;
+        } else {
+            Bitmap thumbnail = BitmapMemoryCache.getInstance().acquire(key);
+            if (thumbnail != null)
+                setBitmap(imageView, thumbnail);
+        }
+
+        DisplayMetrics metrics = imageView.getResources().getDisplayMetrics();
+        start(new LoadTask(fullKey, z, metrics.widthPixels, metrics.heightPixels, imageView, true, listener), imageView);
+    }
+
+    /**
+     * Fetches and decodes the image of a card not shown yet, so it is cached when bound. Runs after
+     * the images of the cards on screen. Does nothing if it is cached or already being prefetched.
+     */
+    public void prefetch(ZenCardModel z, int reqWidth, int reqHeight) {
+        String key = keyFor(z);
+
+        if (prefetching.containsKey(key) || BitmapMemoryCache.getInstance().get(key) != null)
+            return;
+
+        LoadTask task = new LoadTask(key, z, reqWidth, reqHeight, null);
+        prefetching.put(key, task);
+
+        if (!start(task))
+            prefetching.remove(key);
+    }
+
+    /**
+     * Cancels every prefetch not finished yet, e.g. when the app goes to background. The ones a
+     * bound view waits for are left to finish.
+     */
+    public void cancelPrefetches() {
+        for (LoadTask task : prefetching.values()) {
+            if (task.cancelUnattached())
+                prefetching.remove(task.key, task);
+        }
+    }
+
+    public boolean isPrefetching(ZenCardModel z) {
+        return prefetching.containsKey(keyFor(z));
+    }
+
+    /**
+     * Smoothed download speed of the images fetched so far, 0 before the first one.
+     */
+    public synchronized float getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized float getAverageImageSize() {
+        return averageImageSize;
+    }
+
+    private synchronized void recordFetch(int bytes, long elapsedMillis) {
+        float speed = bytes * 1000f / Math.max(1, elapsedMillis);
+
+        if (bytesPerSecond == 0) {
+            bytesPerSecond = speed;
+            averageImageSize = bytes;
+        } else {
+            bytesPerSecond += THROUGHPUT_SMOOTHING * (speed - bytesPerSecond);
+            averageImageSize += THROUGHPUT_SMOOTHING * (bytes - averageImageSize);
+        }
+    }
+
+    private void start(LoadTask task, ImageView imageView) {
+        if (start(task))
+            imageView.setTag(R.id.image_loader_task, task);
+    }
+
+    private boolean start(LoadTask task) {
+        if (task.z.hasImage())
+            executor.execute(task);
+        else if (task.z.getId() >= 0)
+            fetchExecutor.execute(task);
+        else
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Cancels the fetch or decode running for the view, if any. Should be called when the view is
+     * recycled.
+     */
+    public void cancel(ImageView imageView) {
+        Object task = imageView.getTag(R.id.image_loader_task);
+
+        // A prefetch the view waited for keeps going, the card may come back
+        if (task instanceof LoadTask && ((LoadTask) task).isPrefetch())
+            ((LoadTask) task).detach(imageView);
+        else if (task instanceof LoadTask)
+            ((LoadTask) task).cancel();
+
+        imageView.setTag(R.id.image_loader_task, null);
+        imageView.setTag(R.id.image_loader_key, null);
+    }
+
+    /**
+     * Cancels any decode for the view and gives its bitmap back, so it can be reused by the next
+     * decodes once it is not cached anymore. Should be called when the view is recycled.
+     */
+    public void recycle(ImageView imageView) {
+        cancel(imageView);
+        releaseBitmap(imageView);
+        imageView.setImageDrawable(null);
+        imageView.setTag(R.id.image_loader_preview, null);
+    }
+
+    private void setBitmap(ImageView imageView, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        imageView.setTag(R.id.image_loader_bitmap, bitmap);
+        imageView.setTag(R.id.image_loader_preview, null);
+    }
+
+    /**
+     * Shows a preview or low resolution bitmap, not tracked by the caches, until the image is
+     * ready.
+     */
+    private void setPreview(ImageView imageView, Bitmap preview) {
+        BitmapDrawable drawable = new BitmapDrawable(imageView.getResources(), preview);
+        drawable.setFilterBitmap(true);
+
+        imageView.setImageDrawable(drawable);
+        imageView.setTag(R.id.image_loader_preview, Boolean.TRUE);
+    }
+
+    /**
+     * Fades the image in over the preview, then leaves the plain bitmap in the view.
+     */
+    private void crossFade(final ImageView imageView, final Bitmap bitmap) {
+        final TransitionDrawable fade = new TransitionDrawable(new Drawable[] {
+                imageView.getDrawable(), new BitmapDrawable(imageView.getResources(), bitmap) });
+        fade.setCrossFadeEnabled(true);
+
+        imageView.setImageDrawable(fade);
+        imageView.setTag(R.id.image_loader_bitmap, bitmap);
+        imageView.setTag(R.id.image_loader_preview, null);
+        fade.startTransition(CROSS_FADE_MILLIS);
+
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (imageView.getDrawable() == fade)
+                    imageView.setImageBitmap(bitmap);
+            }
+        }, CROSS_FADE_MILLIS);
+    }
+
+    private void releaseBitmap(ImageView imageView) {
+        Object bitmap = imageView.getTag(R.id.image_loader_bitmap);
+
+        if (bitmap instanceof Bitmap)
+            BitmapMemoryCache.getInstance().release((Bitmap) bitmap);
+
+        imageView.setTag(R.id.image_loader_bitmap, null);
+    }
+
+    /**
+     * Measured size of the view, or the size it will have once laid out: cards are as wide as the
+     * screen and as high as their layout params.
+     */
+    private int[] getTargetSize(ImageView imageView) {
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+
+        if (width <= 0)
+            width = imageView.getResources().getDisplayMetrics().widthPixels;
+
+        if (height <= 0) {
+            ViewGroup.LayoutParams params = imageView.getLayoutParams();
+            height = params != null && params.height > 0 ? params.height : width / 2;
+        }
+
+        return new int[] { width, height };
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        return config == Bitmap.Config.RGB_565 ? 2 : 4;
+    }
+
+    public interface OnEncodedImage {
+        void onEncodedImage(byte[] image);
+    }
+
+    /**
+     * Encoded image of the card from memory, the disk store, drawn from its text or from the
+     * network, in that order. Blocks, so must not be called on the main thread nor from the
+     * callback of a request, whose slot may be the one the download waits for. For background
+     * work, as the daily quote, so the download gives way to the images on screen.
+     */
+    public byte[] getEncodedImage(ZenCardModel z) throws IOException {
+        return getEncodedImage(z, Priority.BACKGROUND);
+    }
+
+    /**
+     * Same as {@link #getEncodedImage(ZenCardModel)}, downloading with the given priority, e.g.
+     * {@link Priority#USER_ACTION} for an image the user asked for.
+     */
+    public byte[] getEncodedImage(ZenCardModel z, Priority priority) throws IOException {
+        String key = keyFor(z);
+        byte[] image = findStored(key);
+
+        if (image == null)
+            image = render(z, priority);
+
+        if (image == null) {
+            HttpUtil request = imageRequest(z, ImageResolution.FULL_WIDTH);
+            request.setPriority(priority);
+
+            image = request.getBytes();
+            store(key, image);
+        }
+
+        return image;
+    }
+
+    private static byte[] findStored(String key) {
+        byte[] image = EncodedImageCache.getInstance().get(key);
+
+        if (image == null) {
+            image = DiskImageStore.getInstance().get(key);
+            EncodedImageCache.getInstance().put(key, image);
+        }
+
+        return image;
+    }
+
+    private static byte[] render(ZenCardModel z, Priority priority) {
+        byte[] image = ZenSourceUtils.RENDER_CARDS_LOCALLY ? ZenCardRenderer.getInstance().render(z, priority) : null;
+
+        if (image != null)
+            store(keyFor(z), image);
+
+        return image;
+    }
+
+    private static void store(String key, byte[] image) {
+        EncodedImageCache.getInstance().put(key, image);
+        DiskImageStore.getInstance().put(key, image);
+    }
+
+    /**
+     * Key of an image narrower than the full size, which only the list uses.
+     */
+    private static String variantKey(ZenCardModel z, int width) {
+        return keyFor(z) + "_w" + width;
+    }
+
+    private static HttpUtil imageRequest(ZenCardModel z, int width) {
+        HttpUtil.Builder builder = HttpUtil.Builder()
+                .withUrl(ZenSourceUtils.API_URL + "/image/" + z.getId())
+                .withCallType(HttpCallType.IMAGE)
+                .addQueryParameter("l", z.getLanguage());
+
+        return ImageResolution.getInstance().addParameters(builder, width).build();
+    }
+
+    /**
+     * Looks up or fetches the image of the card when it has none, then decodes it. Queued tasks
+     * run newest first, so views scrolled past are served after the ones on screen, and
+     * prefetches, which have no view, after all of them.
+     */
+    private class LoadTask implements Runnable, Comparable<LoadTask> {
+
+        private final String key;
+        private final ZenCardModel z;
+        private final int reqWidth;
+        private final int reqHeight;
+        private final boolean prefetch;
+        private volatile WeakReference<ImageView> imageViewRef;
+        private boolean done;
+        private final boolean fit;
+        private final OnEncodedImage listener;
+        private final long order;
+        private volatile boolean cancelled;
+        private volatile boolean promoted;
+        private volatile HttpUtil fetch;
+        private volatile byte[] variant;
+
+        LoadTask(String key, ZenCardModel z, int reqWidth, int reqHeight, ImageView imageView) {
+            this(key, z, reqWidth, reqHeight, imageView, false, null);
+        }
+
+        /**
+         * @param fit decodes to fit inside reqWidth x reqHeight instead of covering it
+         */
+        LoadTask(String key, ZenCardModel z, int reqWidth, int reqHeight, ImageView imageView, boolean fit, OnEncodedImage listener) {
+            this.key = key;
+            this.z = z;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.prefetch = imageView == null;
+            this.imageViewRef = imageView != null ? new WeakReference<>(imageView) : null;
+            this.fit = fit;
+            this.listener = listener;
+            this.order = sequence.incrementAndGet();
+        }
+
+        boolean isPrefetch() {
+            return prefetch;
+        }
+
+        /**
+         * Gives the image of a prefetch to the view its card was bound to, promoting it. False
+         * when the prefetch is already done, the view then needs its own task.
+         */
+        synchronized boolean attach(ImageView imageView) {
+            if (done || cancelled)
+                return false;
+
+            imageViewRef = new WeakReference<>(imageView);
+            promote();
+            return true;
+        }
+
+        synchronized boolean cancelUnattached() {
+            if (imageViewRef != null)
+                return false;
+
+            cancel();
+            return true;
+        }
+
+        synchronized void detach(ImageView imageView) {
+            WeakReference<ImageView> current = imageViewRef;
+            if (current != null && current.get() == imageView)
+                imageViewRef = null;
+        }
+
+        /**
+         * Makes a prefetch as urgent as the images on screen, when its card is shown.
+         */
+        void promote() {
+            promoted = true;
+
+            HttpUtil current = fetch;
+            if (current != null)
+                current.setPriority(Priority.VISIBLE);
+        }
+
+        void cancel() {
+            cancelled = true;
+            executor.remove(this);
+            fetchExecutor.remove(this);
+
+            HttpUtil current = fetch;
+            if (current != null)
+                current.cancel();
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (isPrefetch() != other.isPrefetch())
+                return isPrefetch() ? 1 : -1;
+            return other.order < order ? -1 : (other.order == order ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled || (!isPrefetch() && imageViewRef.get() == null)) {
+                finish();
+                return;
+            }
+
+            // A prefetch may have decoded it while this one was queued. Otherwise the pixels
+            // stored by an earlier session skip both the fetch and the decode
+            Bitmap bitmap = isPrefetch() ? BitmapMemoryCache.getInstance().get(key) : BitmapMemoryCache.getInstance().acquire(key);
+            if (bitmap == null && !fit)
+                bitmap = readPixels();
+
+            // The zoom screen needs the encoded image even when the bitmap is cached
+            if ((bitmap == null || listener != null) && !hasImage()) {
+                if (bitmap != null && !isPrefetch())
+                    BitmapMemoryCache.getInstance().release(bitmap);
+
+                if (!fetchImage())
+                    finish();
+                return;
+            }
+
+            if (listener != null)
+                postEncodedImage(z.getImage());
+
+            if (bitmap == null)
+                bitmap = decode();
+
+            finish();
+
+            if (bitmap != null && !isPrefetch())
+                post(bitmap);
+            else if (bitmap != null && imageViewRef != null)
+                postCached();
+        }
+
+        /**
+         * Whether there is an encoded image to decode, the card's or a narrower one fetched on a
+         * slow network.
+         */
+        private boolean hasImage() {
+            return variant != null || z.hasImage();
+        }
+
+        private Bitmap readPixels() {
+            Bitmap bitmap = PixelCache.getInstance().get(pixelKey());
+
+            if (bitmap != null) {
+                if (!isPrefetch())
+                    BitmapMemoryCache.getInstance().acquire(bitmap);
+                BitmapMemoryCache.getInstance().put(key, bitmap);
+
+                if (!PreviewCache.getInstance().contains(key))
+                    PreviewCache.getInstance().put(key, bitmap);
+            }
+
+            return bitmap;
+        }
+
+        private Bitmap decode() {
+            // The zoom screen comes over the list, whose cache gives way to it on small heaps
+            if (fit)
+                BitmapBudget.getInstance().request(BitmapBudget.PRIORITY_ZOOM,
+                        (long) reqWidth * reqHeight * bytesPerPixel(BitmapDecoder.getPreferredConfig()));
+
+            byte[] image = variant != null ? variant : z.getImage();
+            long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap = fit
+                    ? BitmapDecoder.decodeToFit(image, reqWidth, reqHeight)
+                    : BitmapDecoder.decode(image, reqWidth, reqHeight);
+
+            if (bitmap == null)
+                return null;
+
+            // Only card sized bitmaps are worth keeping as pixels, full size ones are too big.
+            // Neither are the ones from a narrower image, the full one is wanted next time
+            if (!fit) {
+                PixelCache.getInstance().recordDecode(SystemClock.elapsedRealtime() - start);
+                if (variant == null)
+                    PixelCache.getInstance().put(pixelKey(), bitmap);
+
+                if (!PreviewCache.getInstance().contains(key))
+                    PreviewCache.getInstance().put(key, bitmap);
+            }
+
+            // Acquired before being cached, so an eviction can not pool it on its way to the view
+            if (!isPrefetch())
+                BitmapMemoryCache.getInstance().acquire(bitmap);
+            BitmapMemoryCache.getInstance().put(key, bitmap);
+
+            return bitmap;
+        }
+
+        private String pixelKey() {
+            return key + "_" + reqWidth + "x" + reqHeight;
+        }
+
+        private void finish() {
+            if (!isPrefetch())
+                return;
+
+            // No view can be attached after this
+            synchronized (this) {
+                done = true;
+            }
+            prefetching.remove(key, this);
+        }
+
+        private void postEncodedImage(final byte[] image) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView imageView = imageViewRef.get();
+
+                    if (imageView != null && key.equals(imageView.getTag(R.id.image_loader_key)))
+                        listener.onEncodedImage(image);
+                }
+            });
+        }
+
+        private void post(final Bitmap bitmap) {
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView imageView = imageViewRef.get();
+
+                    if (imageView == null || !key.equals(imageView.getTag(R.id.image_loader_key))) {
+                        BitmapMemoryCache.getInstance().release(bitmap);
+                        return;
+                    }
+
+                    show(imageView, bitmap);
+                }
+            });
+        }
+
+        /**
+         * Shows the bitmap a prefetch cached in the view attached to it. The bitmap is acquired on
+         * the main thread, as the view may be gone by then; if it was evicted meanwhile the card
+         * image is decoded again, without fetching it.
+         */
+        private void postCached() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    WeakReference<ImageView> ref = imageViewRef;
+                    ImageView imageView = ref != null ? ref.get() : null;
+
+                    if (imageView == null || !key.equals(imageView.getTag(R.id.image_loader_key)))
+                        return;
+
+                    Bitmap bitmap = BitmapMemoryCache.getInstance().acquire(key);
+                    if (bitmap != null)
+                        show(imageView, bitmap);
+                    else
+                        start(new LoadTask(key, z, reqWidth, reqHeight, imageView), imageView);
+                }
+            });
+        }
+
+        private void show(ImageView imageView, Bitmap bitmap) {
+            releaseBitmap(imageView);
+
+            if (Boolean.TRUE.equals(imageView.getTag(R.id.image_loader_preview)) && imageView.getDrawable() != null)
+                crossFade(imageView, bitmap);
+            else
+                setBitmap(imageView, bitmap);
+
+            imageView.setTag(R.id.image_loader_task, null);
+        }
+
+        /**
+         * Decodes a low resolution pass of a freshly downloaded image and shows it until the full
+         * decode, queued behind the other cards, is ready.
+         */
+        private void postLowResolution(byte[] image) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = LOW_RES_SAMPLE_SIZE;
+            options.inPreferredConfig = BitmapDecoder.getPreferredConfig();
+
+            final Bitmap lowResolution = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (lowResolution == null)
+                return;
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView imageView = imageViewRef.get();
+
+                    if (imageView != null && key.equals(imageView.getTag(R.id.image_loader_key))
+                            && imageView.getTag(R.id.image_loader_bitmap) == null)
+                        setPreview(imageView, lowResolution);
+                }
+            });
+        }
+
+        /**
+         * Fetches the image and queues the decode, returns false if it could not be fetched.
+         */
+        private boolean fetchImage() {
+            try {
+                int width = fit ? ImageResolution.FULL_WIDTH : ImageResolution.getInstance().widthFor(reqWidth);
+                boolean full = true;
+
+                // Images stored by earlier sessions are not downloaded again
+                byte[] image = findStored(keyFor(z));
+
+                // Drawn from the text when possible, the server image is only the fallback
+                if (image == null && !cancelled)
+                    image = render(z, isPrefetch() && !promoted ? Priority.PREFETCH : Priority.VISIBLE);
+
+                // Narrower images are enough for the list on slower networks, never for the zoom
+                // screen
+                if (image == null && width < ImageResolution.FULL_WIDTH) {
+                    full = false;
+                    image = findStored(variantKey(z, width));
+                }
+
+                if (image == null) {
+                    HttpUtil request = imageRequest(z, width);
+                    if (isPrefetch() && !promoted)
+                        request.setPriority(Priority.PREFETCH);
+                    fetch = request;
+
+                    // Promoted while the request was built
+                    if (promoted)
+                        request.setPriority(Priority.VISIBLE);
+
+                    long start = SystemClock.elapsedRealtime();
+                    image = fetch.getBytes();
+                    recordFetch(image.length, SystemClock.elapsedRealtime() - start);
+
+                    if (image.length > 0)
+                        store(full ? keyFor(z) : variantKey(z, width), image);
+
+                    // Slow networks are where the first paint matters most
+                    if (image.length > 0 && !cancelled && !isPrefetch() && !fit)
+                        postLowResolution(image);
+                }
+
+                if (cancelled || image.length == 0)
+                    return false;
+
+                // Kept on the card, so binding it again does not look it up again. Narrower ones
+                // are not, the zoom screen and sharing take the image of the card
+                if (full)
+                    z.setImage(image);
+                else
+                    variant = image;
+
+                executor.execute(this);
+                return true;
+            } catch (IOException e) {
+                if (!cancelled)
+                    Log.e("ImageLoader", "Could not fetch image " + key, e);
+                return false;
+            } finally {
+                fetch = null;
+            }
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        BackgroundThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, prefix + count.incrementAndGet());
+        }
+    }
+}
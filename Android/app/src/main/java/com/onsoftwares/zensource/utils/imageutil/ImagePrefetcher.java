@@ -0,0 +1,142 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.view.View;
+
+import com.onsoftwares.zensource.models.ZenCardModel;
+
+import java.util.List;
+
+/**
+ * Prefetches the images of the cards ahead of the scroll, and tells how far ahead the next page
+ * should be requested.
+ *
+ * How many cards are prefetched follows the scroll speed and how fast images are being
+ * downloaded: enough to cover the cards that will show up while one image downloads, but never
+ * more than the network can deliver in {@link #MAX_LEAD_SECONDS}.
+ */
+public class ImagePrefetcher {
+
+    private static final int MIN_AHEAD = 2;
+    private static final int MAX_AHEAD = 10;
+    private static final float MAX_LEAD_SECONDS = 4f;
+    private static final float DEFAULT_IMAGE_SECONDS = 0.5f;
+    private static final float DEFAULT_PAGE_SECONDS = 1f;
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    private final LinearLayoutManager layoutManager;
+    private final int imageViewId;
+
+    private boolean paused;
+    private float itemsPerSecond;
+    private long lastScrollTime;
+    private float pageSeconds = DEFAULT_PAGE_SECONDS;
+    private int width;
+    private int height;
+
+    public ImagePrefetcher(LinearLayoutManager layoutManager, int imageViewId) {
+        this.layoutManager = layoutManager;
+        this.imageViewId = imageViewId;
+    }
+
+    /**
+     * Updates the scroll speed and prefetches the cards after the last visible one.
+     */
+    public void onScrolled(List<ZenCardModel> dataList, int dy) {
+        updateVelocity(dy);
+
+        if (paused || dy < 0)
+            return;
+
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible < 0 || !updateTargetSize(lastVisible))
+            return;
+
+        int end = Math.min(dataList.size(), lastVisible + 1 + getPrefetchCount());
+
+        for (int i = lastVisible + 1; i < end; i++) {
+            ZenCardModel z = dataList.get(i);
+            if (z != null)
+                ImageLoader.getInstance().prefetch(z, width, height);
+        }
+    }
+
+    /**
+     * Cards the next page should be requested before the end of the list: the ones prefetched,
+     * plus the ones that will scroll by while the page loads.
+     */
+    public int getLoadMoreThreshold() {
+        return getPrefetchCount() + (int) Math.ceil(itemsPerSecond * pageSeconds);
+    }
+
+    /**
+     * Time the last page took to load, so the next one is requested early enough.
+     */
+    public void onPageLoaded(long elapsedMillis) {
+        pageSeconds = Math.max(DEFAULT_PAGE_SECONDS / 2, elapsedMillis / 1000f);
+    }
+
+    public int getPrefetchCount() {
+        float bytesPerSecond = ImageLoader.getInstance().getBytesPerSecond();
+        float imageSize = ImageLoader.getInstance().getAverageImageSize();
+
+        float imageSeconds = bytesPerSecond > 0 ? imageSize / bytesPerSecond : DEFAULT_IMAGE_SECONDS;
+        int count = MIN_AHEAD + (int) Math.ceil(itemsPerSecond * imageSeconds);
+
+        // On a slow network, prefetching more than it can deliver just delays the visible cards
+        if (bytesPerSecond > 0 && imageSize > 0)
+            count = Math.min(count, (int) (bytesPerSecond * MAX_LEAD_SECONDS / imageSize));
+
+        return Math.max(MIN_AHEAD, Math.min(MAX_AHEAD, count));
+    }
+
+    /**
+     * Stops prefetching and cancels what is still running, e.g. when the app goes to background.
+     */
+    public void pause() {
+        paused = true;
+        itemsPerSecond = 0;
+        ImageLoader.getInstance().cancelPrefetches();
+    }
+
+    public void resume() {
+        paused = false;
+        lastScrollTime = 0;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    private void updateVelocity(int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollTime;
+        lastScrollTime = now;
+
+        View child = layoutManager.getChildAt(0);
+        if (child == null || child.getHeight() == 0 || elapsed <= 0 || elapsed > 1000)
+            return;
+
+        float speed = Math.abs(dy) * 1000f / elapsed / child.getHeight();
+        itemsPerSecond += VELOCITY_SMOOTHING * (speed - itemsPerSecond);
+    }
+
+    /**
+     * Prefetched images are decoded at the size of the image of the cards already laid out.
+     */
+    private boolean updateTargetSize(int position) {
+        View card = layoutManager.findViewByPosition(position);
+        View imageView = card != null ? card.findViewById(imageViewId) : null;
+
+        if (imageView == null)
+            return width > 0 && height > 0;
+
+        if (imageView.getWidth() > 0 && imageView.getHeight() > 0) {
+            width = imageView.getWidth();
+            height = imageView.getHeight();
+        }
+
+        return width > 0 && height > 0;
+    }
+}
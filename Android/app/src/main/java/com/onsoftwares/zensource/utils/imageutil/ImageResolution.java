@@ -0,0 +1,102 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+
+/**
+ * Picks the size and format of the card images asked to the server, from the width of the card
+ * on screen and the network in use.
+ *
+ * On Wi-Fi and 4G the image is as wide as the card, on slower networks a bit narrower, which the
+ * card scales back up. Widths are rounded up to a few steps so the server and the caches see
+ * only a handful of variants. The full size is what the zoom screen and sharing use.
+ */
+public class ImageResolution {
+
+    public enum NetworkClass { FAST, MEDIUM, SLOW }
+
+    public static final int FULL_WIDTH = ZenCardRenderer.IMAGE_WIDTH;
+    public static final String PREFERRED_FORMAT = "webp";
+
+    private static final int[] WIDTH_STEPS = { 320, 480, 640, 800, FULL_WIDTH };
+    private static final float MEDIUM_NETWORK_SCALE = 0.75f;
+    private static final float SLOW_NETWORK_SCALE = 0.5f;
+
+    private static ImageResolution instance;
+
+    private final ConnectivityManager connectivityManager;
+    private final float density;
+
+    private ImageResolution(Context context) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.density = context.getResources().getDisplayMetrics().density;
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance == null)
+            instance = new ImageResolution(context.getApplicationContext());
+    }
+
+    public static synchronized ImageResolution getInstance() {
+        if (instance == null)
+            throw new IllegalStateException("ImageResolution.init was not called");
+        return instance;
+    }
+
+    /**
+     * Width to ask for a card shown viewWidth pixels wide.
+     */
+    public int widthFor(int viewWidth) {
+        float scale = 1f;
+
+        switch (getNetworkClass()) {
+            case MEDIUM:
+                scale = MEDIUM_NETWORK_SCALE;
+                break;
+            case SLOW:
+                scale = SLOW_NETWORK_SCALE;
+                break;
+        }
+
+        int wanted = (int) Math.ceil(viewWidth * scale);
+        for (int step : WIDTH_STEPS) {
+            if (step >= wanted)
+                return step;
+        }
+        return FULL_WIDTH;
+    }
+
+    /**
+     * Adds the width, density and preferred format to an image request.
+     */
+    public HttpUtil.Builder addParameters(HttpUtil.Builder builder, int width) {
+        return builder
+                .addQueryParameter("w", width + "")
+                .addQueryParameter("dpr", density + "")
+                .addQueryParameter("fmt", PREFERRED_FORMAT);
+    }
+
+    public NetworkClass getNetworkClass() {
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+
+        if (info == null || info.getType() != ConnectivityManager.TYPE_MOBILE)
+            return NetworkClass.FAST;
+
+        switch (info.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NetworkClass.SLOW;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NetworkClass.FAST;
+            default:
+                return NetworkClass.MEDIUM;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.onsoftwares.zensource.R;
+import com.onsoftwares.zensource.models.ZenCardModel;
+import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okio.ByteString;
+
+/**
+ * Writes card images to the cache and shares them, off the main thread.
+ *
+ * The encoded image is written as it is whenever it is available and fits the size budget, so
+ * nothing is re-encoded. Files are named by the hash of their content, so two shares never write
+ * to the same file, and files older than {@link #MAX_FILE_AGE} are deleted on each share.
+ */
+public class ImageSharer {
+
+    public enum Format { ORIGINAL, JPEG, WEBP }
+
+    public static final String SHARE_DIRECTORY = "images";
+
+    private static final long MAX_FILE_AGE = 24 * 60 * 60 * 1000;
+    private static final int START_QUALITY = 90;
+    private static final int MIN_QUALITY = 50;
+    private static final int QUALITY_STEP = 10;
+
+    private static ImageSharer instance;
+
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+
+    private Format format = Format.ORIGINAL;
+    private int maxBytes;
+
+    private ImageSharer() {
+        this.executor = Executors.newSingleThreadExecutor();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized ImageSharer getInstance() {
+        if (instance == null)
+            instance = new ImageSharer();
+        return instance;
+    }
+
+    /**
+     * Output format and size budget of the shared files. With {@link Format#ORIGINAL} images over
+     * the budget are re-encoded as JPEG. A budget of 0 means no limit.
+     */
+    public synchronized ImageSharer setOutput(Format format, int maxBytes) {
+        this.format = format;
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Shares the image of the card shown in the view. Only a bitmap the {@link ImageLoader} set
+     * is taken from the view, never a preview or a placeholder. When there is none and the card
+     * has no encoded image either, the encoded image is loaded before it is written.
+     */
+    public void share(Activity activity, ZenCardModel z, ImageView imageView) {
+        Object bitmap = imageView.getTag(R.id.image_loader_bitmap);
+        Bitmap shown = bitmap instanceof Bitmap ? (Bitmap) bitmap : null;
+        byte[] image = z.getImage();
+
+        share(activity, image, shown, image == null && shown == null ? z : null);
+    }
+
+    /**
+     * Shares the encoded image, or the bitmap on screen when the encoded one is not available.
+     * Must be called on the main thread; the chooser opens once the file is written.
+     */
+    public void share(Activity activity, byte[] image, Bitmap shown) {
+        share(activity, image, shown, null);
+    }
+
+    private void share(Activity activity, final byte[] image, final Bitmap shown, final ZenCardModel toLoad) {
+        if ((image == null || image.length == 0) && shown == null && toLoad == null)
+            return;
+
+        final Context context = activity.getApplicationContext();
+        final WeakReference<Activity> activityRef = new WeakReference<>(activity);
+        final Format outputFormat;
+        final int outputMaxBytes;
+
+        synchronized (this) {
+            outputFormat = format;
+            outputMaxBytes = maxBytes;
+        }
+
+        // Kept out of the pool while it is being compressed
+        if (shown != null)
+            BitmapMemoryCache.getInstance().acquire(shown);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+
+                try {
+                    byte[] encoded = toLoad != null ? ImageLoader.getInstance().getEncodedImage(toLoad, Priority.USER_ACTION) : image;
+                    if ((encoded != null && encoded.length > 0) || shown != null)
+                        file = write(context, encoded, shown, outputFormat, outputMaxBytes);
+                } catch (IOException e) {
+                    Log.e("ImageSharer", "Could not write the shared image", e);
+                }
+
+                final File shared = file;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (shown != null)
+                            BitmapMemoryCache.getInstance().release(shown);
+
+                        Activity activity = activityRef.get();
+                        if (shared != null && activity != null && !activity.isFinishing())
+                            startChooser(activity, shared);
+                    }
+                });
+            }
+        });
+    }
+
+    private static File write(Context context, byte[] image, Bitmap shown, Format format, int maxBytes) throws IOException {
+        byte[] output;
+        String extension;
+
+        if (image != null && image.length > 0 && format == Format.ORIGINAL && (maxBytes <= 0 || image.length <= maxBytes)) {
+            output = image;
+            extension = extensionOf(image);
+        } else {
+            // The bitmap on screen is encoded instead when there is no room for a full size one
+            boolean decode = image != null && image.length > 0
+                    && (shown == null || BitmapBudget.getInstance().request(BitmapBudget.PRIORITY_USER_ACTION, decodedBytes(image)));
+            Bitmap bitmap = decode ? BitmapDecoder.decode(image) : shown;
+            if (bitmap == null)
+                return null;
+
+            Bitmap.CompressFormat compressFormat = format == Format.WEBP ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+            output = compress(bitmap, compressFormat, maxBytes);
+            extension = format == Format.WEBP ? ".webp" : ".jpg";
+
+            if (bitmap != shown)
+                BitmapPool.getInstance().put(bitmap);
+        }
+
+        File directory = new File(context.getCacheDir(), SHARE_DIRECTORY);
+        directory.mkdirs();
+
+        File file = new File(directory, ByteString.of(output).sha1().hex() + extension);
+        deleteOldFiles(directory, file);
+
+        // Same content, same name: already written by an earlier share
+        if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            stream.write(output);
+        } finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(file))
+            throw new IOException("Could not rename " + temp + " to " + file);
+
+        return file;
+    }
+
+    /**
+     * Compresses at decreasing quality until the result fits the budget, or the quality gets too
+     * low.
+     */
+    private static byte[] compress(Bitmap bitmap, Bitmap.CompressFormat format, int maxBytes) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int quality = START_QUALITY;
+
+        while (true) {
+            stream.reset();
+            bitmap.compress(format, quality, stream);
+
+            if (maxBytes <= 0 || stream.size() <= maxBytes || quality - QUALITY_STEP < MIN_QUALITY)
+                return stream.toByteArray();
+
+            quality -= QUALITY_STEP;
+        }
+    }
+
+    private static long decodedBytes(byte[] image) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+
+        return (long) Math.max(0, options.outWidth) * Math.max(0, options.outHeight) * ImageLoader.bytesPerPixel(BitmapDecoder.getPreferredConfig());
+    }
+
+    private static String extensionOf(byte[] image) {
+        if (image.length >= 4 && (image[0] & 0xFF) == 0x89 && image[1] == 'P' && image[2] == 'N' && image[3] == 'G')
+            return ".png";
+        if (image.length >= 12 && image[0] == 'R' && image[1] == 'I' && image[2] == 'F' && image[3] == 'F'
+                && image[8] == 'W' && image[9] == 'E' && image[10] == 'B' && image[11] == 'P')
+            return ".webp";
+        return ".jpg";
+    }
+
+    private static void deleteOldFiles(File directory, File keep) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        long oldest = System.currentTimeMillis() - MAX_FILE_AGE;
+
+        for (File file : files) {
+            if (file.equals(keep))
+                continue;
+
+            // The fixed name older versions overwrote on every share is not needed anymore
+            if (file.lastModified() < oldest || file.getName().startsWith(ZenSourceUtils.IMAGE_NAME_ON_CACHE))
+                file.delete();
+        }
+    }
+
+    private static void startChooser(Activity activity, File file) {
+        Uri contentUri = FileProvider.getUriForFile(activity, ZenSourceUtils.PACKKAGE_NAME + ".fileprovider", file);
+
+        if (contentUri != null) {
+
+            Intent shareIntent = new Intent();
+            shareIntent.setAction(Intent.ACTION_SEND);
+            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            shareIntent.setDataAndType(contentUri, activity.getContentResolver().getType(contentUri));
+            shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
+            activity.startActivity(Intent.createChooser(shareIntent, "Choose an app"));
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of decoded card pixels, already downsampled to the size of the card, so a card seen
+ * in an earlier session is shown without fetching nor decoding its image.
+ *
+ * Each entry is a file with a small header followed by the raw pixels, memory-mapped and copied
+ * straight into a pooled bitmap. Files are evicted least recently used first to stay under the
+ * byte budget, and after {@link #TTL}, which also bounds how long an edited quote may show its
+ * old image.
+ *
+ * Read and decode times are counted, see {@link #toString}, to compare both paths on a device.
+ */
+public class PixelCache {
+
+    public static final String DIRECTORY = "pixels";
+
+    private static final int MAGIC = 0x5A50584C;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4;
+    private static final int CONFIG_RGB_565 = 1;
+    private static final int CONFIG_ARGB_8888 = 2;
+    private static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+    private static final long TTL = TimeUnit.DAYS.toMillis(7);
+    private static final String EXTENSION = ".px";
+
+    private static PixelCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private boolean loaded;
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long readCount;
+    private long readMillis;
+    private long decodeCount;
+    private long decodeMillis;
+
+    PixelCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance == null)
+            instance = new PixelCache(new File(context.getCacheDir(), DIRECTORY), DEFAULT_MAX_BYTES);
+    }
+
+    public static synchronized PixelCache getInstance() {
+        if (instance == null)
+            throw new IllegalStateException("PixelCache.init was not called");
+        return instance;
+    }
+
+    /**
+     * Bitmap with the stored pixels, reusing a pooled one when possible, or null. Reads the disk,
+     * so must not be called on the main thread.
+     */
+    public Bitmap get(String key) {
+        File file = fileFor(key);
+
+        synchronized (this) {
+            ensureLoaded();
+
+            if (!sizes.containsKey(key)) {
+                misses++;
+                return null;
+            }
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap = null;
+
+        try {
+            bitmap = read(file);
+        } catch (IOException e) {
+            Log.w("PixelCache", "Dropping unreadable entry " + key, e);
+        }
+
+        synchronized (this) {
+            if (bitmap == null) {
+                remove(key);
+                misses++;
+                return null;
+            }
+
+            // Moves it to the most recently used end
+            sizes.get(key);
+
+            hits++;
+            readCount++;
+            readMillis += SystemClock.elapsedRealtime() - start;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Stores the pixels of the bitmap. They are copied right away, so the bitmap can be reused as
+     * soon as this returns, and written in background.
+     */
+    public void put(final String key, Bitmap bitmap) {
+        final int config = configCode(bitmap.getConfig());
+        if (config == 0 || bitmap.isRecycled())
+            return;
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(pixels);
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long size = write(fileFor(key), width, height, config, pixels.array());
+
+                    synchronized (PixelCache.this) {
+                        ensureLoaded();
+
+                        Long old = sizes.put(key, size);
+                        currentBytes += size - (old != null ? old : 0);
+                        trimToSize();
+                    }
+                } catch (IOException e) {
+                    Log.e("PixelCache", "Could not store " + key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Time taken by a decode the cache could have saved, for the comparison in {@link #toString}.
+     */
+    public synchronized void recordDecode(long millis) {
+        decodeCount++;
+        decodeMillis += millis;
+    }
+
+    public synchronized float getAverageReadMillis() {
+        return readCount == 0 ? 0 : (float) readMillis / readCount;
+    }
+
+    public synchronized float getAverageDecodeMillis() {
+        return decodeCount == 0 ? 0 : (float) decodeMillis / decodeCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getSize() {
+        return currentBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PixelCache[size=" + currentBytes + "/" + maxBytes + ", hits=" + hits + ", misses=" + misses
+                + ", avgReadMs=" + getAverageReadMillis() + ", avgDecodeMs=" + getAverageDecodeMillis() + "]";
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        directory.mkdirs();
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        // Oldest first, so the access order starts as the order they were last used
+        List<File> sorted = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+            }
+        });
+
+        for (File file : sorted) {
+            String name = file.getName();
+
+            if (!name.endsWith(EXTENSION)) {
+                file.delete();
+                continue;
+            }
+
+            sizes.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+            currentBytes += file.length();
+        }
+
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            fileFor(eldest.getKey()).delete();
+            currentBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Long size = sizes.remove(key);
+        if (size != null)
+            currentBytes -= size;
+        fileFor(key).delete();
+    }
+
+    private static Bitmap read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+                throw new IOException("Not a pixel file");
+
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            Bitmap.Config config = configOf(buffer.getInt());
+            long createdAt = buffer.getLong();
+            int length = buffer.getInt();
+
+            if (config == null || width <= 0 || height <= 0 || length != buffer.remaining())
+                throw new IOException("Broken pixel file");
+
+            if (createdAt + TTL < System.currentTimeMillis())
+                return null;
+
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height, config);
+            if (bitmap == null)
+                bitmap = Bitmap.createBitmap(width, height, config);
+
+            if (bitmap.getByteCount() != length) {
+                BitmapPool.getInstance().put(bitmap);
+                throw new IOException("Pixel file does not match its size");
+            }
+
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Written to a temp file and renamed, so a crash never leaves a partial entry.
+     */
+    private long write(File file, int width, int height, int config, byte[] pixels) throws IOException {
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(width);
+            header.putInt(height);
+            header.putInt(config);
+            header.putLong(System.currentTimeMillis());
+            header.putInt(pixels.length);
+
+            out.write(header.array());
+            out.write(pixels);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+
+        return file.length();
+    }
+
+    private static int configCode(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565)
+            return CONFIG_RGB_565;
+        if (config == Bitmap.Config.ARGB_8888)
+            return CONFIG_ARGB_8888;
+        return 0;
+    }
+
+    private static Bitmap.Config configOf(int code) {
+        if (code == CONFIG_RGB_565)
+            return Bitmap.Config.RGB_565;
+        if (code == CONFIG_ARGB_8888)
+            return Bitmap.Config.ARGB_8888;
+        return null;
+    }
+}
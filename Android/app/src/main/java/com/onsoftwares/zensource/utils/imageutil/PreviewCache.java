@@ -0,0 +1,187 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Few pixel thumbnails of the cards already decoded once, shown blurred while the real image
+ * loads. They take a few hundred bytes each, so they outlive the bitmap and pixel caches by far.
+ *
+ * Kept in memory and saved to a single file, read back in background when the app starts.
+ */
+public class PreviewCache {
+
+    public static final int PREVIEW_WIDTH = 16;
+
+    private static final int MAX_PREVIEW_HEIGHT = 2 * PREVIEW_WIDTH;
+    private static final String FILE_NAME = "previews";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_ENTRIES = 2000;
+    private static final long SAVE_DELAY = 5000;
+
+    private static PreviewCache instance;
+
+    private final File file;
+    private final LruCache<String, Bitmap> cache = new LruCache<>(MAX_ENTRIES);
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+
+    private boolean saveScheduled;
+
+    PreviewCache(File file) {
+        this.file = file;
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance != null)
+            return;
+
+        instance = new PreviewCache(new File(context.getCacheDir(), FILE_NAME));
+        instance.load();
+    }
+
+    public static synchronized PreviewCache getInstance() {
+        if (instance == null)
+            throw new IllegalStateException("PreviewCache.init was not called");
+        return instance;
+    }
+
+    public Bitmap get(String key) {
+        return key != null ? cache.get(key) : null;
+    }
+
+    public boolean contains(String key) {
+        return cache.get(key) != null;
+    }
+
+    /**
+     * Keeps a thumbnail of the bitmap, which can be reused right after this returns.
+     */
+    public void put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled() || bitmap.getWidth() == 0)
+            return;
+
+        int height = Math.max(1, Math.min(MAX_PREVIEW_HEIGHT, Math.round((float) PREVIEW_WIDTH * bitmap.getHeight() / bitmap.getWidth())));
+        Bitmap preview = Bitmap.createScaledBitmap(bitmap, PREVIEW_WIDTH, height, true);
+
+        // Scaling to the same size returns the bitmap itself, which may go back to the pool
+        if (preview == bitmap)
+            preview = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+
+        cache.put(key, preview);
+        scheduleSave();
+    }
+
+    private synchronized void scheduleSave() {
+        if (saveScheduled)
+            return;
+
+        saveScheduled = true;
+        io.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PreviewCache.this) {
+                    saveScheduled = false;
+                }
+
+                try {
+                    save();
+                } catch (IOException e) {
+                    Log.e("PreviewCache", "Could not save the previews", e);
+                }
+            }
+        }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read();
+                } catch (FileNotFoundException e) {
+                    // Nothing saved yet
+                } catch (IOException e) {
+                    Log.w("PreviewCache", "Could not read the previews", e);
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if (in.readInt() != FILE_VERSION)
+                return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                int width = in.readShort();
+                int height = in.readShort();
+
+                if (width != PREVIEW_WIDTH || height <= 0 || height > MAX_PREVIEW_HEIGHT)
+                    throw new IOException("Broken preview " + key);
+
+                int[] pixels = new int[width * height];
+                for (int p = 0; p < pixels.length; p++)
+                    pixels[p] = in.readInt();
+
+                // Previews put while loading are newer
+                if (cache.get(key) == null)
+                    cache.put(key, Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Written to a temp file and renamed, so a crash never leaves a partial file.
+     */
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        Map<String, Bitmap> snapshot = cache.snapshot();
+
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+
+            // Least recently used first, so reading them back keeps the order
+            for (Map.Entry<String, Bitmap> entry : snapshot.entrySet()) {
+                Bitmap preview = entry.getValue();
+                int[] pixels = new int[preview.getWidth() * preview.getHeight()];
+                preview.getPixels(pixels, 0, preview.getWidth(), 0, 0, preview.getWidth(), preview.getHeight());
+
+                out.writeUTF(entry.getKey());
+                out.writeShort(preview.getWidth());
+                out.writeShort(preview.getHeight());
+                for (int pixel : pixels)
+                    out.writeInt(pixel);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file))
+            throw new IOException("Could not rename " + temp);
+    }
+}
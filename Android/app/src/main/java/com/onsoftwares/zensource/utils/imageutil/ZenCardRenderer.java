@@ -0,0 +1,196 @@
+package com.onsoftwares.zensource.utils.imageutil;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.Log;
+
+import com.onsoftwares.zensource.models.ZenCardModel;
+import com.onsoftwares.zensource.utils.ZenSourceUtils;
+import com.onsoftwares.zensource.utils.httputil.HttpCallType;
+import com.onsoftwares.zensource.utils.httputil.HttpUtil;
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Draws quote cards on the device, the way the server ZenQuoteImage does: the message over one
+ * of its backgrounds, picked from the quote id, and the author below it.
+ *
+ * Backgrounds are downloaded once from /img/back{n}.jpg and kept in {@link DiskImageStore}, so a
+ * card costs only its text. The card is encoded as a JPEG, the same bytes the server would send,
+ * so the list, the zoom screen and sharing keep using the encoded image as before.
+ */
+public class ZenCardRenderer {
+
+    public static final int IMAGE_WIDTH = 1024;
+    public static final int IMAGE_HEIGHT = 576;
+
+    private static final int BACKGROUND_COUNT = 16;
+    private static final String BACKGROUND_KEY = "background_";
+    private static final int FONT_SIZE = 56;
+    private static final int FONT_SIZE_STEP = 8;
+    private static final int AUTHOR_FONT_SIZE = 30;
+    private static final int X_TRANSLATE = 40;
+    private static final int Y_TRANSLATE = 40;
+    private static final int MAX_WIDTH = 940;
+    private static final int MAX_HEIGHT = 492 - 30; // 30 is for Author name
+    private static final int JPEG_QUALITY = 90;
+
+    private static ZenCardRenderer instance;
+
+    private final Object[] backgroundLocks = new Object[BACKGROUND_COUNT];
+    private final Typeface quoteTypeface = Typeface.create(Typeface.SERIF, Typeface.BOLD);
+    private final Typeface authorTypeface = Typeface.MONOSPACE;
+
+    private ZenCardRenderer() {
+        for (int i = 0; i < BACKGROUND_COUNT; i++)
+            backgroundLocks[i] = new Object();
+    }
+
+    public static synchronized ZenCardRenderer getInstance() {
+        if (instance == null)
+            instance = new ZenCardRenderer();
+        return instance;
+    }
+
+    /**
+     * Same background the server uses for the quote, from 1 to {@link #BACKGROUND_COUNT}.
+     */
+    public static int backgroundFor(int quoteId) {
+        return ((quoteId % BACKGROUND_COUNT) + BACKGROUND_COUNT) % BACKGROUND_COUNT + 1;
+    }
+
+    /**
+     * Encoded image of the card, or null when it could not be drawn and the server image should
+     * be used instead. Blocks on the background download the first time, so must not be called
+     * on the main thread. The download has the priority of the image it is for.
+     */
+    public byte[] render(ZenCardModel z, Priority priority) {
+        if (z.getId() < 0 || z.getMessage() == null || z.getMessage().isEmpty())
+            return null;
+
+        Bitmap background = null;
+        Bitmap card = null;
+
+        try {
+            byte[] encodedBackground = getBackground(backgroundFor(z.getId()), priority);
+            background = BitmapDecoder.decode(encodedBackground);
+            if (background == null) {
+                DiskImageStore.getInstance().remove(BACKGROUND_KEY + backgroundFor(z.getId()));
+                return null;
+            }
+
+            card = BitmapPool.getInstance().get(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+            if (card == null)
+                card = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+
+            Canvas canvas = new Canvas(card);
+            canvas.drawBitmap(background, null, new Rect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT), new Paint(Paint.FILTER_BITMAP_FLAG));
+            drawText(canvas, z.getMessage(), z.getAuthor());
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            card.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+            return stream.toByteArray();
+        } catch (IOException e) {
+            Log.w("ZenCardRenderer", "Could not get the background of " + z.getId(), e);
+            return null;
+        } finally {
+            BitmapPool.getInstance().put(background);
+            BitmapPool.getInstance().put(card);
+        }
+    }
+
+    /**
+     * Backgrounds are the same for every card using them, so each is downloaded only once even
+     * when several cards ask for it at the same time.
+     */
+    private byte[] getBackground(int background, Priority priority) throws IOException {
+        String key = BACKGROUND_KEY + background;
+
+        synchronized (backgroundLocks[background - 1]) {
+            byte[] image = DiskImageStore.getInstance().get(key);
+
+            if (image == null) {
+                image = HttpUtil.Builder()
+                        .withUrl(ZenSourceUtils.SITE_URL + "/img/back" + background + ".jpg")
+                        .withCallType(HttpCallType.IMAGE)
+                        .withPriority(priority)
+                        .build()
+                        .getBytes();
+
+                if (image.length == 0)
+                    throw new IOException("Empty background " + background);
+
+                DiskImageStore.getInstance().put(key, image);
+            }
+
+            return image;
+        }
+    }
+
+    /**
+     * Message shrunk until it fits, centered a bit above the middle when it is short, with the
+     * author right aligned under its last column.
+     */
+    private void drawText(Canvas canvas, String message, String author) {
+        String quote = " " + message;
+
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(quoteTypeface);
+
+        int fontSize = FONT_SIZE;
+        StaticLayout layout;
+
+        while (true) {
+            paint.setTextSize(fontSize);
+            layout = new StaticLayout(quote, paint, MAX_WIDTH, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+
+            if (layout.getHeight() < MAX_HEIGHT || fontSize <= FONT_SIZE_STEP)
+                break;
+
+            fontSize -= FONT_SIZE_STEP;
+        }
+
+        float textWidth = 0;
+        for (int i = 0; i < layout.getLineCount(); i++)
+            textWidth = Math.max(textWidth, layout.getLineWidth(i));
+
+        int textHeight = layout.getHeight();
+        int yDraw = (MAX_HEIGHT - textHeight) > Y_TRANSLATE * 2 ? IMAGE_HEIGHT / 2 - Y_TRANSLATE * 2 : IMAGE_HEIGHT / 2;
+
+        canvas.save();
+        canvas.translate(X_TRANSLATE, yDraw - textHeight / 2f);
+
+        // White text with a thin black outline, the layout draws with the paint as it is now
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(Color.WHITE);
+        layout.draw(canvas);
+
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(1);
+        paint.setColor(Color.BLACK);
+        layout.draw(canvas);
+
+        canvas.restore();
+
+        if (author == null || author.isEmpty())
+            return;
+
+        TextPaint authorPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        authorPaint.setTypeface(authorTypeface);
+        authorPaint.setTextSize(AUTHOR_FONT_SIZE);
+        authorPaint.setColor(Color.WHITE);
+        authorPaint.setTextAlign(Paint.Align.RIGHT);
+
+        float top = yDraw + textHeight / 2f + 10;
+        canvas.drawText(author, textWidth + X_TRANSLATE, top - authorPaint.ascent(), authorPaint);
+    }
+}
@@ -0,0 +1,84 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static final String HOST = "api.example.com";
+
+    private final CircuitBreaker breaker = new CircuitBreaker();
+
+    private void failTimes(int times, long now) {
+        for (int i = 0; i < times; i++)
+            breaker.onFailure(HOST, now);
+    }
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD - 1, 0);
+
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertTrue(breaker.allowRequest(HOST, 0));
+    }
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD, 0);
+
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.allowRequest(HOST, 1));
+        assertEquals(1, breaker.getOpenedCount());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD - 1, 0);
+        breaker.onSuccess(HOST);
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD - 1, 0);
+
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+    }
+
+    @Test
+    public void letsOneRequestThroughOnceOpenLongEnough() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD, 0);
+
+        assertFalse(breaker.allowRequest(HOST, CircuitBreaker.OPEN_MILLIS - 1));
+        assertTrue(breaker.allowRequest(HOST, CircuitBreaker.OPEN_MILLIS));
+        assertFalse(breaker.allowRequest(HOST, CircuitBreaker.OPEN_MILLIS + 1));
+    }
+
+    @Test
+    public void successfulCheckClosesTheCircuit() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD, 0);
+        breaker.allowRequest(HOST, CircuitBreaker.OPEN_MILLIS);
+        breaker.onSuccess(HOST);
+
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertTrue(breaker.allowRequest(HOST, CircuitBreaker.OPEN_MILLIS + 1));
+    }
+
+    @Test
+    public void failedCheckKeepsItOpenForAnotherPeriod() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD, 0);
+        long checkedAt = CircuitBreaker.OPEN_MILLIS;
+        breaker.allowRequest(HOST, checkedAt);
+        breaker.onFailure(HOST, checkedAt + 100);
+
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.allowRequest(HOST, checkedAt + CircuitBreaker.OPEN_MILLIS));
+        assertTrue(breaker.allowRequest(HOST, checkedAt + 100 + CircuitBreaker.OPEN_MILLIS));
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    @Test
+    public void hostsHaveTheirOwnCircuit() {
+        failTimes(CircuitBreaker.FAILURE_THRESHOLD, 0);
+
+        assertTrue(breaker.allowRequest("cdn.example.com", 1));
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState("cdn.example.com"));
+    }
+}
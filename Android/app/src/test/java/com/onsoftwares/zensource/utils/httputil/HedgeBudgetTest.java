@@ -0,0 +1,53 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HedgeBudgetTest {
+
+    private final HedgeBudget budget = new HedgeBudget();
+
+    @Test
+    public void allowsOneHedgeInTenRequests() {
+        for (int i = 0; i < 9; i++)
+            budget.onRequest();
+
+        assertFalse(budget.tryHedge());
+
+        budget.onRequest();
+
+        assertTrue(budget.tryHedge());
+        assertFalse(budget.tryHedge());
+        assertEquals(1, budget.getHedgeCount());
+        assertEquals(2, budget.getDeniedCount());
+    }
+
+    @Test
+    public void savesUpToTheMax() {
+        for (int i = 0; i < 1000; i++)
+            budget.onRequest();
+
+        int hedges = 0;
+        while (budget.tryHedge())
+            hedges++;
+
+        assertEquals((long) HedgeBudget.MAX_SAVED, hedges);
+    }
+
+    @Test
+    public void followsTheRatio() {
+        budget.setRatio(0.5);
+        budget.onRequest();
+        budget.onRequest();
+
+        assertTrue(budget.tryHedge());
+    }
+
+    @Test
+    public void countsHedgesAnsweredFirst() {
+        budget.onHedgeWon();
+
+        assertEquals(1, budget.getHedgeWonCount());
+    }
+}
@@ -0,0 +1,248 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpFutureTest {
+
+    private static final long TIMEOUT_MILLIS = 50;
+
+    private static class RecordingListener<T> implements HttpFuture.Listener<T> {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile T result;
+        volatile HttpException error;
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(HttpException e) {
+            this.error = e;
+            calls.incrementAndGet();
+        }
+    }
+
+    private static Runnable counting(final AtomicInteger count) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    private static HttpException failure() {
+        return HttpException.fromFailure(new IOException("Connection reset"));
+    }
+
+    @Test
+    public void timeoutIsDeliveredAsAFailure() throws InterruptedException {
+        HttpFuture<String> future = new HttpFuture<>();
+        RecordingListener<String> listener = new RecordingListener<>();
+        AtomicInteger stopped = new AtomicInteger();
+
+        future.addCanceller(counting(stopped))
+                .withTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .addListener(listener, HttpFuture.IMMEDIATE);
+
+        Thread.sleep(TIMEOUT_MILLIS * 4);
+
+        assertEquals(1, listener.calls.get());
+        assertTrue(listener.error.isTimeout());
+        assertEquals(1, stopped.get());
+        assertFalse(future.isCancelled());
+        assertSame(listener.error, future.getTimeout());
+        assertFalse(future.succeed("late"));
+    }
+
+    @Test
+    public void cancelledFutureDoesNotTimeOut() throws InterruptedException {
+        HttpFuture<String> future = new HttpFuture<>();
+        RecordingListener<String> listener = new RecordingListener<>();
+        AtomicInteger stopped = new AtomicInteger();
+
+        future.addCanceller(counting(stopped))
+                .withTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .addListener(listener, HttpFuture.IMMEDIATE);
+
+        assertTrue(future.cancel());
+        Thread.sleep(TIMEOUT_MILLIS * 4);
+
+        assertEquals(0, listener.calls.get());
+        assertEquals(1, stopped.get());
+        assertNull(future.getTimeout());
+        assertFalse(future.cancel());
+    }
+
+    @Test
+    public void resultInTimeIsDeliveredOnce() throws InterruptedException {
+        HttpFuture<String> future = new HttpFuture<>();
+        RecordingListener<String> listener = new RecordingListener<>();
+        AtomicInteger stopped = new AtomicInteger();
+
+        future.addCanceller(counting(stopped))
+                .withTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .addListener(listener, HttpFuture.IMMEDIATE);
+
+        assertTrue(future.succeed("quote"));
+        Thread.sleep(TIMEOUT_MILLIS * 4);
+
+        assertEquals(1, listener.calls.get());
+        assertEquals("quote", listener.result);
+        assertEquals(0, stopped.get());
+    }
+
+    @Test
+    public void resultAfterCancelIsNotDelivered() {
+        HttpFuture<String> future = new HttpFuture<>();
+        RecordingListener<String> listener = new RecordingListener<>();
+
+        future.addListener(listener, HttpFuture.IMMEDIATE);
+        future.cancel();
+
+        assertFalse(future.succeed("quote"));
+        assertFalse(future.fail(failure()));
+        assertEquals(0, listener.calls.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void allOfSucceedsWithTheResultsInOrder() {
+        HttpFuture<String> first = new HttpFuture<>();
+        HttpFuture<String> second = new HttpFuture<>();
+        RecordingListener<List<String>> listener = new RecordingListener<>();
+
+        HttpFuture.allOf(first, second).addListener(listener, HttpFuture.IMMEDIATE);
+
+        second.succeed("b");
+        assertEquals(0, listener.calls.get());
+
+        first.succeed("a");
+        assertEquals(Arrays.asList("a", "b"), listener.result);
+    }
+
+    @Test
+    public void allOfFailsWithTheFirstFailureAndCancelsTheOthers() {
+        HttpFuture<String> first = new HttpFuture<>();
+        HttpFuture<String> second = new HttpFuture<>();
+        HttpFuture<String> third = new HttpFuture<>();
+        RecordingListener<List<String>> listener = new RecordingListener<>();
+        HttpException error = failure();
+
+        HttpFuture<List<String>> all = HttpFuture.allOf(first, second, third);
+        all.addListener(listener, HttpFuture.IMMEDIATE);
+
+        first.succeed("a");
+        second.fail(error);
+
+        assertEquals(1, listener.calls.get());
+        assertSame(error, listener.error);
+        assertFalse(all.isCancelled());
+        assertTrue(third.isCancelled());
+        assertFalse(third.succeed("c"));
+    }
+
+    @Test
+    public void cancellingAllOfCancelsEveryFuture() {
+        HttpFuture<String> first = new HttpFuture<>();
+        HttpFuture<String> second = new HttpFuture<>();
+
+        HttpFuture.allOf(first, second).cancel();
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void composeStartsTheNextWithTheResult() {
+        HttpFuture<String> first = new HttpFuture<>();
+        final HttpFuture<Integer> inner = new HttpFuture<>();
+        final AtomicInteger composed = new AtomicInteger();
+        RecordingListener<Integer> listener = new RecordingListener<>();
+
+        first.thenCompose(new HttpFuture.Composer<String, Integer>() {
+            @Override
+            public HttpFuture<Integer> compose(String result) {
+                composed.set(result.length());
+                return inner;
+            }
+        }).addListener(listener, HttpFuture.IMMEDIATE);
+
+        first.succeed("zen");
+        assertEquals(3, composed.get());
+        assertEquals(0, listener.calls.get());
+
+        inner.succeed(42);
+        assertEquals(Integer.valueOf(42), listener.result);
+    }
+
+    @Test
+    public void cancellingACompositionCancelsTheFirstFuture() {
+        HttpFuture<String> first = new HttpFuture<>();
+        final AtomicInteger composed = new AtomicInteger();
+
+        HttpFuture<Integer> next = first.thenCompose(new HttpFuture.Composer<String, Integer>() {
+            @Override
+            public HttpFuture<Integer> compose(String result) {
+                composed.incrementAndGet();
+                return new HttpFuture<>();
+            }
+        });
+
+        next.cancel();
+
+        assertTrue(first.isCancelled());
+        assertFalse(first.succeed("zen"));
+        assertEquals(0, composed.get());
+    }
+
+    @Test
+    public void cancellingACompositionCancelsTheInnerFuture() {
+        HttpFuture<String> first = new HttpFuture<>();
+        final HttpFuture<Integer> inner = new HttpFuture<>();
+        RecordingListener<Integer> listener = new RecordingListener<>();
+
+        HttpFuture<Integer> next = first.thenCompose(new HttpFuture.Composer<String, Integer>() {
+            @Override
+            public HttpFuture<Integer> compose(String result) {
+                return inner;
+            }
+        });
+        next.addListener(listener, HttpFuture.IMMEDIATE);
+
+        first.succeed("zen");
+        next.cancel();
+
+        assertTrue(inner.isCancelled());
+        assertFalse(inner.succeed(42));
+        assertEquals(0, listener.calls.get());
+    }
+
+    @Test
+    public void compositionFailsWithTheFirstFailure() {
+        HttpFuture<String> first = new HttpFuture<>();
+        RecordingListener<Integer> listener = new RecordingListener<>();
+        HttpException error = failure();
+
+        first.thenCompose(new HttpFuture.Composer<String, Integer>() {
+            @Override
+            public HttpFuture<Integer> compose(String result) {
+                return new HttpFuture<>();
+            }
+        }).addListener(listener, HttpFuture.IMMEDIATE);
+
+        first.fail(error);
+
+        assertSame(error, listener.error);
+    }
+}
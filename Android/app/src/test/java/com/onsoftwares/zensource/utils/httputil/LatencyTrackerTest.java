@@ -0,0 +1,52 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+
+    private static final String ENDPOINT = "api.example.com/api/zen/images";
+
+    private final LatencyTracker tracker = new LatencyTracker();
+
+    @Test
+    public void unknownUntilThereAreEnoughSamples() {
+        for (int i = 0; i < LatencyTracker.MIN_SAMPLES - 1; i++)
+            tracker.record(ENDPOINT, 100);
+
+        assertEquals(-1, tracker.percentile(ENDPOINT, 0.95));
+
+        tracker.record(ENDPOINT, 100);
+
+        assertEquals(100, tracker.percentile(ENDPOINT, 0.95));
+    }
+
+    @Test
+    public void percentileOfTheRecentSamples() {
+        for (int i = 1; i <= 100; i++)
+            tracker.record(ENDPOINT, i);
+
+        assertEquals(95, tracker.percentile(ENDPOINT, 0.95));
+        assertEquals(50, tracker.percentile(ENDPOINT, 0.5));
+        assertEquals(100, tracker.percentile(ENDPOINT, 1));
+    }
+
+    @Test
+    public void forgetsTheOldestSamples() {
+        for (int i = 0; i < LatencyTracker.SAMPLES; i++)
+            tracker.record(ENDPOINT, 5000);
+        for (int i = 0; i < LatencyTracker.SAMPLES; i++)
+            tracker.record(ENDPOINT, 100);
+
+        assertEquals(100, tracker.percentile(ENDPOINT, 1));
+    }
+
+    @Test
+    public void endpointsAreTrackedApart() {
+        for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++)
+            tracker.record(ENDPOINT, 100);
+
+        assertEquals(-1, tracker.percentile("api.example.com/api/zen/image", 0.95));
+    }
+}
@@ -0,0 +1,59 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class LimitedInputStreamTest {
+
+    private static InputStream limited(int size, long maxBytes) {
+        return new LimitedInputStream(new ByteArrayInputStream(new byte[size]), maxBytes);
+    }
+
+    private static long readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[7];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1)
+            total += n;
+        return total;
+    }
+
+    @Test
+    public void readsUpToTheLimit() throws IOException {
+        assertEquals(100, readAll(limited(100, 100)));
+    }
+
+    @Test
+    public void failsPastTheLimit() throws IOException {
+        try {
+            readAll(limited(101, 100));
+            fail();
+        } catch (LimitedInputStream.PayloadTooLargeException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void countsSingleBytesAndSkips() throws IOException {
+        InputStream in = limited(10, 5);
+        in.skip(4);
+        in.read();
+
+        try {
+            in.read();
+            fail();
+        } catch (LimitedInputStream.PayloadTooLargeException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void noLimitWhenZero() throws IOException {
+        assertEquals(1000, readAll(limited(1000, 0)));
+    }
+}
@@ -0,0 +1,304 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+
+    private static class TestTicket extends RequestScheduler.Ticket {
+        boolean started;
+        boolean preempted;
+        boolean dropped;
+        boolean stoppable = true;
+
+        TestTicket(Priority priority) {
+            super(priority);
+        }
+
+        @Override
+        protected void start() {
+            started = true;
+        }
+
+        @Override
+        protected boolean preempt() {
+            return stoppable;
+        }
+
+        @Override
+        protected void onPreempted() {
+            preempted = true;
+        }
+
+        @Override
+        protected void onDropped() {
+            dropped = true;
+        }
+    }
+
+    @Test
+    public void startsRightAwayWhileThereAreSlots() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket ticket = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(ticket);
+
+        assertTrue(ticket.started);
+        assertEquals(1, scheduler.getRunningCount(Priority.VISIBLE));
+        assertEquals(0, scheduler.getWaitingCount(Priority.VISIBLE));
+    }
+
+    @Test
+    public void waitsForTheSlotsOfItsPriority() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket first = new TestTicket(Priority.BACKGROUND);
+        TestTicket second = new TestTicket(Priority.BACKGROUND);
+
+        scheduler.submit(first);
+        scheduler.submit(second);
+
+        assertTrue(first.started);
+        assertFalse(second.started);
+        assertEquals(1, scheduler.getWaitingCount(Priority.BACKGROUND));
+
+        scheduler.finish(first);
+
+        assertTrue(second.started);
+        assertEquals(0, scheduler.getWaitingCount(Priority.BACKGROUND));
+    }
+
+    @Test
+    public void waitsForAFreeSlotWhenAllAreTaken() {
+        RequestScheduler scheduler = new RequestScheduler(2);
+        TestTicket first = new TestTicket(Priority.VISIBLE);
+        TestTicket second = new TestTicket(Priority.VISIBLE);
+        TestTicket third = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(first);
+        scheduler.submit(second);
+        scheduler.submit(third);
+
+        assertFalse(third.started);
+
+        scheduler.finish(second);
+
+        assertTrue(third.started);
+    }
+
+    @Test
+    public void startsWaitingRequestsInOrderOfPriority() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket running = new TestTicket(Priority.USER_ACTION);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+        TestTicket visible = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(running);
+        scheduler.submit(prefetch);
+        scheduler.submit(visible);
+
+        // The visible request waits for the user action, which is not preempted
+        assertFalse(visible.started);
+
+        scheduler.finish(running);
+
+        assertTrue(visible.started);
+        assertFalse(prefetch.started);
+    }
+
+    @Test
+    public void preemptsTheLatestPrefetchForAVisibleRequest() {
+        RequestScheduler scheduler = new RequestScheduler(2);
+        TestTicket older = new TestTicket(Priority.PREFETCH);
+        TestTicket newer = new TestTicket(Priority.PREFETCH);
+        TestTicket visible = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(older);
+        scheduler.submit(newer);
+        scheduler.submit(visible);
+
+        assertTrue(visible.started);
+        assertTrue(newer.preempted);
+        assertFalse(older.preempted);
+        assertEquals(1, scheduler.getRunningCount(Priority.PREFETCH));
+        assertEquals(1, scheduler.getPreemptedCount());
+    }
+
+    @Test
+    public void preemptsBackgroundBeforePrefetch() {
+        RequestScheduler scheduler = new RequestScheduler(2);
+        TestTicket background = new TestTicket(Priority.BACKGROUND);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+        TestTicket action = new TestTicket(Priority.USER_ACTION);
+
+        scheduler.submit(background);
+        scheduler.submit(prefetch);
+        scheduler.submit(action);
+
+        assertTrue(action.started);
+        assertTrue(background.preempted);
+        assertFalse(prefetch.preempted);
+    }
+
+    @Test
+    public void waitsWhenTheVictimCanNotBeStopped() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+        prefetch.stoppable = false;
+        TestTicket visible = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(prefetch);
+        scheduler.submit(visible);
+
+        assertFalse(visible.started);
+        assertFalse(prefetch.preempted);
+        assertEquals(0, scheduler.getPreemptedCount());
+
+        scheduler.finish(prefetch);
+
+        assertTrue(visible.started);
+    }
+
+    @Test
+    public void neverPreemptsForAPrefetch() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket background = new TestTicket(Priority.BACKGROUND);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+
+        scheduler.submit(background);
+        scheduler.submit(prefetch);
+
+        assertFalse(prefetch.started);
+        assertFalse(background.preempted);
+    }
+
+    @Test
+    public void startsAWaitingRequestRaisedToAFreeClass() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket running = new TestTicket(Priority.BACKGROUND);
+        TestTicket waiting = new TestTicket(Priority.BACKGROUND);
+
+        scheduler.submit(running);
+        scheduler.submit(waiting);
+        scheduler.reprioritize(waiting, Priority.VISIBLE);
+
+        assertTrue(waiting.started);
+        assertSame(Priority.VISIBLE, waiting.getPriority());
+        assertEquals(0, scheduler.getWaitingCount(Priority.BACKGROUND));
+        assertEquals(1, scheduler.getRunningCount(Priority.VISIBLE));
+    }
+
+    @Test
+    public void countsARaisedRunningRequestInItsNewClass() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+
+        scheduler.submit(prefetch);
+        scheduler.reprioritize(prefetch, Priority.VISIBLE);
+
+        assertEquals(0, scheduler.getRunningCount(Priority.PREFETCH));
+        assertEquals(1, scheduler.getRunningCount(Priority.VISIBLE));
+
+        scheduler.finish(prefetch);
+
+        assertEquals(0, scheduler.getRunningCount(Priority.VISIBLE));
+    }
+
+    @Test
+    public void raisedRequestsAreNotPreempted() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket prefetch = new TestTicket(Priority.PREFETCH);
+        TestTicket visible = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(prefetch);
+        scheduler.reprioritize(prefetch, Priority.VISIBLE);
+        scheduler.submit(visible);
+
+        assertFalse(prefetch.preempted);
+        assertFalse(visible.started);
+    }
+
+    @Test
+    public void finishingAWaitingRequestDropsIt() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket running = new TestTicket(Priority.VISIBLE);
+        TestTicket waiting = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(running);
+        scheduler.submit(waiting);
+        scheduler.finish(waiting);
+
+        assertTrue(waiting.dropped);
+        assertEquals(0, scheduler.getWaitingCount(Priority.VISIBLE));
+
+        scheduler.finish(running);
+
+        assertFalse(waiting.started);
+    }
+
+    @Test
+    public void finishingTwiceFreesOneSlot() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket first = new TestTicket(Priority.BACKGROUND);
+        TestTicket second = new TestTicket(Priority.BACKGROUND);
+        TestTicket third = new TestTicket(Priority.BACKGROUND);
+
+        scheduler.submit(first);
+        scheduler.submit(second);
+        scheduler.submit(third);
+
+        scheduler.finish(first);
+        scheduler.finish(first);
+
+        assertTrue(second.started);
+        assertFalse(third.started);
+        assertEquals(1, scheduler.getRunningCount(Priority.BACKGROUND));
+    }
+
+    @Test
+    public void finishedRequestsAreNotSubmittedAgain() {
+        RequestScheduler scheduler = new RequestScheduler(4);
+        TestTicket ticket = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(ticket);
+        scheduler.finish(ticket);
+        ticket.started = false;
+        scheduler.submit(ticket);
+
+        assertFalse(ticket.started);
+        assertEquals(0, scheduler.getRunningCount(Priority.VISIBLE));
+    }
+
+    @Test
+    public void acquiresOnlyAFreeSlot() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket running = new TestTicket(Priority.VISIBLE);
+        TestTicket hedge = new TestTicket(Priority.VISIBLE);
+
+        scheduler.submit(running);
+
+        assertFalse(scheduler.tryAcquire(hedge));
+        assertEquals(0, scheduler.getWaitingCount(Priority.VISIBLE));
+
+        scheduler.finish(running);
+
+        assertTrue(scheduler.tryAcquire(hedge));
+        assertFalse(hedge.started);
+        assertEquals(1, scheduler.getRunningCount(Priority.VISIBLE));
+    }
+
+    @Test
+    public void preemptsAnAcquiredSlot() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+        TestTicket hedge = new TestTicket(Priority.PREFETCH);
+        TestTicket visible = new TestTicket(Priority.VISIBLE);
+
+        assertTrue(scheduler.tryAcquire(hedge));
+        scheduler.submit(visible);
+
+        assertTrue(hedge.preempted);
+        assertTrue(visible.started);
+    }
+}
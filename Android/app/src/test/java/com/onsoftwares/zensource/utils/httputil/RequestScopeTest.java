@@ -0,0 +1,74 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Requests are added to scopes already closed, so they are cancelled the way a closing scope
+ * cancels them, without being sent.
+ */
+public class RequestScopeTest {
+
+    private static final long TIMEOUT_MILLIS = 50;
+
+    private static HttpUtil request(RequestScope scope, final AtomicInteger calls) {
+        return HttpUtil.Builder()
+                .withUrl("http://api.example.com/zen")
+                .inScope(scope)
+                .ifFail(new HttpUtil.CallbackVoid() {
+                    @Override
+                    public void callback() {
+                        calls.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    private static RequestScope closedScope() {
+        RequestScope scope = new RequestScope();
+        scope.close();
+        return scope;
+    }
+
+    @Test
+    public void cancelsTheFutureOfItsRequests() {
+        RequestScope scope = closedScope();
+        HttpUtil request = request(scope, new AtomicInteger());
+
+        HttpFuture<Object> future = request.getAsync();
+
+        assertTrue(request.isCanceled());
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel());
+        assertEquals(1, scope.getCancelledCount());
+    }
+
+    @Test
+    public void timeoutOfACancelledRequestIsNotDelivered() throws InterruptedException {
+        final AtomicInteger listenerCalls = new AtomicInteger();
+        AtomicInteger failCalls = new AtomicInteger();
+
+        request(closedScope(), failCalls).getAsync()
+                .withTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .addListener(new HttpFuture.Listener<Object>() {
+                    @Override
+                    public void onSuccess(Object result) {
+                        listenerCalls.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFailure(HttpException e) {
+                        listenerCalls.incrementAndGet();
+                    }
+                }, HttpFuture.IMMEDIATE);
+
+        Thread.sleep(TIMEOUT_MILLIS * 4);
+
+        assertEquals(0, listenerCalls.get());
+        assertEquals(0, failCalls.get());
+    }
+}
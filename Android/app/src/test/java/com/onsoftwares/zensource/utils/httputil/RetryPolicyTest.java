@@ -0,0 +1,63 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100, 250);
+
+    @Test
+    public void retriesTemporaryFailuresOfGets() {
+        assertTrue(policy.shouldRetry(1, HttpException.fromResponse(503, "Unavailable", null), true));
+        assertTrue(policy.shouldRetry(1, HttpException.fromResponse(429, "Too Many Requests", null), true));
+        assertTrue(policy.shouldRetry(1, HttpException.fromResponse(408, "Request Timeout", null), true));
+        assertTrue(policy.shouldRetry(1, HttpException.fromFailure(new IOException("reset")), true));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        assertFalse(policy.shouldRetry(1, HttpException.fromResponse(404, "Not Found", null), true));
+    }
+
+    @Test
+    public void stopsAfterTheLastAttempt() {
+        HttpException e = HttpException.fromResponse(503, "Unavailable", null);
+
+        assertTrue(policy.shouldRetry(2, e, true));
+        assertFalse(policy.shouldRetry(3, e, true));
+        assertFalse(RetryPolicy.NONE.shouldRetry(1, e, true));
+    }
+
+    @Test
+    public void retriesOtherMethodsOnlyWhenNotConnected() {
+        assertFalse(policy.shouldRetry(1, HttpException.fromResponse(503, "Unavailable", null), false));
+        assertFalse(policy.shouldRetry(1, HttpException.fromFailure(new IOException("reset")), false));
+        assertTrue(policy.shouldRetry(1, HttpException.fromFailure(new ConnectException("refused")), false));
+        assertTrue(policy.shouldRetry(1, HttpException.fromFailure(new SocketTimeoutException("failed to connect to host")), false));
+        assertFalse(policy.shouldRetry(1, HttpException.fromFailure(new SocketTimeoutException("timeout")), false));
+    }
+
+    @Test
+    public void doesNotRetryTimeoutsNorOpenCircuits() {
+        assertFalse(policy.shouldRetry(1, HttpException.timeout(1000), true));
+        assertFalse(policy.shouldRetry(1, HttpException.circuitOpen("api.example.com"), true));
+    }
+
+    @Test
+    public void waitsGrowUpToTheMax() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.delayAfter(1) < 100);
+            assertTrue(policy.delayAfter(2) < 200);
+            assertTrue(policy.delayAfter(5) < 250);
+            assertTrue(policy.delayAfter(1) >= 0);
+        }
+
+        assertEquals(0, RetryPolicy.NONE.delayAfter(1));
+    }
+}
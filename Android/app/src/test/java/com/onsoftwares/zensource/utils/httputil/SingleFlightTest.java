@@ -0,0 +1,113 @@
+package com.onsoftwares.zensource.utils.httputil;
+
+import com.onsoftwares.zensource.utils.httputil.RequestScheduler.Priority;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private static final String KEY = "GET http://api.example.com/zen?l=en";
+
+    private final SingleFlight flights = new SingleFlight();
+
+    private static HttpUtil request() {
+        return HttpUtil.Builder()
+                .withUrl("http://api.example.com/zen/images")
+                .withPriority(Priority.BACKGROUND)
+                .build();
+    }
+
+    @Test
+    public void firstRequestLeadsTheFlight() {
+        HttpUtil leader = request();
+        HttpUtil follower = request();
+
+        assertFalse(flights.join(KEY, leader));
+        assertTrue(flights.join(KEY, follower));
+
+        assertEquals(1, flights.getStartedCount());
+        assertEquals(1, flights.getCoalescedCount());
+        assertEquals(1, flights.getInFlightCount());
+    }
+
+    @Test
+    public void landingReturnsTheFollowers() {
+        HttpUtil leader = request();
+        HttpUtil first = request();
+        HttpUtil second = request();
+
+        flights.join(KEY, leader);
+        flights.join(KEY, first);
+        flights.join(KEY, second);
+
+        assertEquals(Arrays.asList(first, second), flights.land(KEY, leader));
+        assertEquals(0, flights.getInFlightCount());
+
+        // The next identical request leads a new flight
+        assertFalse(flights.join(KEY, request()));
+    }
+
+    @Test
+    public void onlyTheLeaderLands() {
+        HttpUtil leader = request();
+        HttpUtil follower = request();
+
+        flights.join(KEY, leader);
+        flights.join(KEY, follower);
+
+        assertTrue(flights.land(KEY, follower).isEmpty());
+        assertEquals(1, flights.getInFlightCount());
+    }
+
+    @Test
+    public void differentRequestsFlySeparately() {
+        assertFalse(flights.join(KEY, request()));
+        assertFalse(flights.join(KEY + "&page=2", request()));
+
+        assertEquals(2, flights.getInFlightCount());
+        assertEquals(0, flights.getCoalescedCount());
+    }
+
+    @Test
+    public void followersAreSentAgainWhenTheLeaderIsCancelled() {
+        RequestScheduler scheduler = RequestScheduler.getInstance();
+        SingleFlight shared = SingleFlight.getInstance();
+
+        // Holds the only background slot, so the requests wait for it and are never sent
+        RequestScheduler.Ticket busy = new RequestScheduler.Ticket(Priority.BACKGROUND) {
+            @Override
+            protected void start() {
+            }
+        };
+        scheduler.submit(busy);
+
+        try {
+            HttpUtil leader = request();
+            HttpUtil follower = request();
+
+            leader.makeGet();
+            follower.makeGet();
+
+            assertEquals(1, shared.getInFlightCount());
+            assertEquals(1, scheduler.getWaitingCount(Priority.BACKGROUND));
+
+            leader.cancel();
+
+            // The follower now leads its own flight and waits for the slot in place of the leader
+            assertFalse(follower.isCanceled());
+            assertEquals(1, shared.getInFlightCount());
+            assertEquals(1, scheduler.getWaitingCount(Priority.BACKGROUND));
+
+            follower.cancel();
+
+            assertEquals(0, shared.getInFlightCount());
+            assertEquals(0, scheduler.getWaitingCount(Priority.BACKGROUND));
+        } finally {
+            scheduler.finish(busy);
+        }
+    }
+}